@@ -0,0 +1,116 @@
+package com.bank.benchmarks;
+
+import com.bank.MyCashContract;
+import com.bank.MyCashState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.CommandData;
+import net.corda.core.contracts.CommandWithParties;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.PrivacySalt;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.Crypto;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+
+import static net.corda.finance.Currencies.DOLLARS;
+
+/**
+ * Throughput of MyCashContract.verify on synthetic LedgerTransactions of a growing number of states.
+ *
+ * The transactions are built once per size outside the measured code, so only the contract's own work is timed:
+ * - issue: no inputs and states outputs, signed by the bank.
+ * - transfer: states inputs owned by alice and states outputs owned by bob, signed by both.
+ * - destroy: states inputs owned by alice and no outputs, signed by alice and the bank.
+ */
+@State(Scope.Benchmark)
+public class MyCashContractBenchmark {
+
+    @Param({"1", "10", "100", "1000", "5000"})
+    public int states;
+
+    private final MyCashContract contract = new MyCashContract();
+
+    private LedgerTransaction issueTx;
+    private LedgerTransaction transferTx;
+    private LedgerTransaction destroyTx;
+
+    @Setup
+    public void buildTransactions() {
+        final Party notary = party("Notary");
+        final Party bank = party("Bank");
+        final Party alice = party("Alice");
+        final Party bob = party("Bob");
+        final Amount<Currency> oneDollar = DOLLARS(1);
+
+        final List<TransactionState<ContractState>> bankOutputs = new ArrayList<>(states);
+        final List<TransactionState<ContractState>> bobOutputs = new ArrayList<>(states);
+        final List<StateAndRef<ContractState>> aliceInputs = new ArrayList<>(states);
+        final SecureHash inputTxId = SecureHash.randomSHA256();
+        for (int i = 0; i < states; ++i) {
+            bankOutputs.add(new TransactionState<>(new MyCashState(oneDollar, bank, alice), MyCashContract.ID, notary));
+            bobOutputs.add(new TransactionState<>(new MyCashState(oneDollar, bank, bob), MyCashContract.ID, notary));
+            aliceInputs.add(new StateAndRef<>(
+                    new TransactionState<>(new MyCashState(oneDollar, bank, alice), MyCashContract.ID, notary),
+                    new StateRef(inputTxId, i)));
+        }
+
+        issueTx = transaction(Collections.emptyList(), bankOutputs,
+                command(new MyCashContract.Commands.VerifyIssuedCash(), bank), notary);
+        transferTx = transaction(aliceInputs, bobOutputs,
+                command(new MyCashContract.Commands.TransferCash(), alice, bob), notary);
+        destroyTx = transaction(aliceInputs, Collections.emptyList(),
+                command(new MyCashContract.Commands.DestroyCash(), alice, bank), notary);
+    }
+
+    @Benchmark
+    public void verifyIssue() {
+        contract.verify(issueTx);
+    }
+
+    @Benchmark
+    public void verifyTransfer() {
+        contract.verify(transferTx);
+    }
+
+    @Benchmark
+    public void verifyDestroy() {
+        contract.verify(destroyTx);
+    }
+
+    private static Party party(String organisation) {
+        return new Party(new CordaX500Name(organisation, "London", "GB"), Crypto.generateKeyPair().getPublic());
+    }
+
+    private static CommandWithParties<CommandData> command(CommandData value, Party... signers) {
+        final List<PublicKey> keys = new ArrayList<>(signers.length);
+        for (Party signer : signers) {
+            keys.add(signer.getOwningKey());
+        }
+        return new CommandWithParties<>(keys, ImmutableList.copyOf(signers), value);
+    }
+
+    private static LedgerTransaction transaction(List<StateAndRef<ContractState>> inputs,
+                                                 List<TransactionState<ContractState>> outputs,
+                                                 CommandWithParties<CommandData> command,
+                                                 Party notary) {
+        // copyOf lets the element types follow the wildcards Kotlin puts on the constructor's parameters
+        return new LedgerTransaction(ImmutableList.copyOf(inputs), ImmutableList.copyOf(outputs), ImmutableList.of(command), Collections.emptyList(),
+                SecureHash.randomSHA256(), notary, null, new PrivacySalt());
+    }
+}
@@ -0,0 +1,349 @@
+package com.bank.webserver;
+
+import com.bank.MyCashQueries;
+import com.bank.MyCashState;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.DataFeed;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unconsumed MyCashStates and balances per owner, kept in the webserver so reads need no RPC call.
+ *
+ * The cache is bootstrapped from a paged vault snapshot sorted by owner and kept current from the vaultTrackBy
+ * updates. Updates that arrive while the snapshot is being read are buffered and replayed afterwards, so a state
+ * consumed during the bootstrap does not survive in the cache. At most maxOwners owners and maxStates states are
+ * held; the least recently used owners are evicted and loaded again, with one query, the next time they are read.
+ * When the updates observable fails the whole cache is dropped and rebuilt.
+ *
+ * Only owners with a well known name are cached, MyCashStates owned by anonymous keys are ignored.
+ */
+@Component
+public class BalanceCache {
+    private final static Logger logger = LoggerFactory.getLogger(BalanceCache.class);
+
+    private static final int PAGE_SIZE = QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+    private static final long MIN_RESYNC_DELAY_SECONDS = 1;
+    private static final long MAX_RESYNC_DELAY_SECONDS = 60;
+
+    private final NodeRPCConnection rpc;
+    private final ScheduledExecutorService resyncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "balance-cache-resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The most owners the cache holds before evicting the least recently used one.
+    @Value("${config.cache.maxOwners:1000}")
+    private int maxOwners;
+    // The most states the cache holds before evicting the least recently used owners.
+    @Value("${config.cache.maxStates:100000}")
+    private int maxStates;
+
+    // Access ordered, so the first entry is always the least recently used owner.
+    private final LinkedHashMap<CordaX500Name, OwnerEntry> owners = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedStates = 0;
+    // Non-null while a snapshot is being read, the updates that arrive meanwhile.
+    private List<Vault.Update<MyCashState>> buffered = null;
+    private Subscription subscription = null;
+    // Incremented on every resync so callbacks from an abandoned feed are ignored.
+    private long generation = 0;
+    private long resyncDelaySeconds = MIN_RESYNC_DELAY_SECONDS;
+
+    public BalanceCache(NodeRPCConnection rpc) {
+        this.rpc = rpc;
+    }
+
+    @PostConstruct
+    public void start() {
+        // The feed may have come from the connection that was lost, so start over on any reconnect.
+        rpc.addReconnectListener(() -> resyncExecutor.execute(this::resync));
+        resyncExecutor.execute(this::resync);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        ++generation;
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+        resyncExecutor.shutdownNow();
+    }
+
+    /* ----------------- Reads ------------------------------------------------------------------------------------ */
+
+    /**
+     * The owner's unconsumed states. Cached owners are answered locally, others are loaded with one vault query.
+     */
+    public List<StateAndRef<MyCashState>> states(CordaX500Name owner) {
+        final OwnerEntry entry = entry(owner);
+        synchronized (this) {
+            return ImmutableList.copyOf(entry.states.values());
+        }
+    }
+
+    /**
+     * The owner's balance in every currency it holds.
+     */
+    public List<Amount<Currency>> balances(CordaX500Name owner) {
+        final OwnerEntry entry = entry(owner);
+        synchronized (this) {
+            final Map<Currency, Long> totals = new LinkedHashMap<>();
+            for (StateAndRef<MyCashState> state : entry.states.values()) {
+                final Amount<Currency> amount = state.getState().getData().getAmount();
+                totals.merge(amount.getToken(), amount.getQuantity(), Math::addExact);
+            }
+            final List<Amount<Currency>> balances = new ArrayList<>(totals.size());
+            for (Map.Entry<Currency, Long> total : totals.entrySet()) {
+                balances.add(new Amount<>(total.getValue(), total.getKey()));
+            }
+            return balances;
+        }
+    }
+
+    private OwnerEntry entry(CordaX500Name owner) {
+        final long loadingGeneration;
+        final OwnerEntry entry;
+        synchronized (this) {
+            final OwnerEntry cached = owners.get(owner);
+            if (cached != null && !cached.loading) {
+                return cached;
+            }
+            loadingGeneration = generation;
+            if (cached != null) {
+                // Somebody else is loading this owner, answer from our own query without caching it.
+                entry = new OwnerEntry(false);
+            } else {
+                entry = new OwnerEntry(true);
+                owners.put(owner, entry);
+                evict();
+            }
+        }
+
+        final List<StateAndRef<MyCashState>> loaded = new ArrayList<>();
+        try {
+            final QueryCriteria criteria = MyCashQueries.ownedByName(owner);
+            int pageNumber = QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+            Vault.Page<MyCashState> page;
+            do {
+                page = rpc.proxy.vaultQueryBy(criteria, new PageSpecification(pageNumber++, PAGE_SIZE), MyCashQueries.BY_OWNER_NAME, MyCashState.class);
+                loaded.addAll(page.getStates());
+            } while (!page.getStates().isEmpty() && loaded.size() < page.getTotalStatesAvailable());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (owners.get(owner) == entry) {
+                    cachedStates -= entry.states.size();
+                    owners.remove(owner);
+                }
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            // Evicted or resynced meanwhile: the result is still right for this read but is not counted as cached.
+            final boolean cached = loadingGeneration == generation && owners.get(owner) == entry;
+            // Updates applied while we were querying win over the snapshot: consumed states stay out.
+            for (StateAndRef<MyCashState> state : loaded) {
+                if (entry.consumedWhileLoading != null && entry.consumedWhileLoading.contains(state.getRef())) {
+                    continue;
+                }
+                if (cached) {
+                    add(entry, state);
+                } else {
+                    entry.states.put(state.getRef(), state);
+                }
+            }
+            entry.loading = false;
+            entry.consumedWhileLoading = null;
+            if (cached) {
+                evict();
+            }
+        }
+        return entry;
+    }
+
+    /* ----------------- Bootstrap and resync ------------------------------------------------------------------- */
+
+    private void resync() {
+        final long feedGeneration;
+        synchronized (this) {
+            feedGeneration = ++generation;
+            if (subscription != null) {
+                subscription.unsubscribe();
+                subscription = null;
+            }
+            owners.clear();
+            cachedStates = 0;
+            buffered = new ArrayList<>();
+        }
+
+        try {
+            final CordaRPCOps proxy = rpc.proxy;
+            final QueryCriteria unconsumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED);
+            final DataFeed<Vault.Page<MyCashState>, Vault.Update<MyCashState>> feed = proxy.vaultTrackBy(unconsumed,
+                    new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, PAGE_SIZE), MyCashQueries.BY_OWNER_NAME, MyCashState.class);
+            final Subscription feedSubscription = feed.getUpdates().subscribe(
+                    update -> onUpdate(feedGeneration, update),
+                    error -> onError(feedGeneration, error));
+            synchronized (this) {
+                if (feedGeneration != generation) {
+                    feedSubscription.unsubscribe();
+                    return;
+                }
+                subscription = feedSubscription;
+            }
+
+            // The snapshot is sorted by owner, so an owner is complete before any later owner evicts it.
+            Vault.Page<MyCashState> page = feed.getSnapshot();
+            long read = 0;
+            int pageNumber = QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+            while (true) {
+                addSnapshot(feedGeneration, page.getStates());
+                read += page.getStates().size();
+                if (page.getStates().isEmpty() || read >= page.getTotalStatesAvailable()) {
+                    break;
+                }
+                page = proxy.vaultQueryBy(unconsumed, new PageSpecification(++pageNumber, PAGE_SIZE), MyCashQueries.BY_OWNER_NAME, MyCashState.class);
+            }
+
+            synchronized (this) {
+                if (feedGeneration != generation) {
+                    return;
+                }
+                for (Vault.Update<MyCashState> update : buffered) {
+                    apply(update);
+                }
+                buffered = null;
+                resyncDelaySeconds = MIN_RESYNC_DELAY_SECONDS;
+                logger.info("Balance cache bootstrapped with {} states of {} owners", cachedStates, owners.size());
+            }
+        } catch (RuntimeException e) {
+            scheduleResync(feedGeneration, e);
+        }
+    }
+
+    private synchronized void addSnapshot(long feedGeneration, List<StateAndRef<MyCashState>> states) {
+        if (feedGeneration != generation) {
+            return;
+        }
+        for (StateAndRef<MyCashState> state : states) {
+            final CordaX500Name owner = state.getState().getData().getOwner().nameOrNull();
+            if (owner == null) {
+                continue;
+            }
+            OwnerEntry entry = owners.get(owner);
+            if (entry == null) {
+                entry = new OwnerEntry(false);
+                owners.put(owner, entry);
+            }
+            add(entry, state);
+            evict();
+        }
+    }
+
+    private synchronized void onUpdate(long feedGeneration, Vault.Update<MyCashState> update) {
+        if (feedGeneration != generation) {
+            return;
+        }
+        if (buffered != null) {
+            buffered.add(update);
+        } else {
+            apply(update);
+        }
+    }
+
+    private void onError(long feedGeneration, Throwable error) {
+        scheduleResync(feedGeneration, error);
+    }
+
+    private synchronized void scheduleResync(long feedGeneration, Throwable error) {
+        if (feedGeneration != generation || resyncExecutor.isShutdown()) {
+            return;
+        }
+        logger.warn("Balance cache lost its vault feed, resyncing in {}s", resyncDelaySeconds, error);
+        resyncExecutor.schedule(this::resync, resyncDelaySeconds, TimeUnit.SECONDS);
+        resyncDelaySeconds = Math.min(resyncDelaySeconds * 2, MAX_RESYNC_DELAY_SECONDS);
+    }
+
+    /* ----------------- Bookkeeping, always called holding the lock ---------------------------------------------- */
+
+    private void apply(Vault.Update<MyCashState> update) {
+        for (StateAndRef<MyCashState> consumed : update.getConsumed()) {
+            final OwnerEntry entry = ownerEntryOf(consumed);
+            if (entry != null) {
+                if (entry.states.remove(consumed.getRef()) != null) {
+                    --cachedStates;
+                }
+                if (entry.loading) {
+                    entry.consumedWhileLoading.add(consumed.getRef());
+                }
+            }
+        }
+        // Produced states of owners we do not hold are not cached, the owner is loaded in full when it is read.
+        for (StateAndRef<MyCashState> produced : update.getProduced()) {
+            final OwnerEntry entry = ownerEntryOf(produced);
+            if (entry != null) {
+                add(entry, produced);
+            }
+        }
+        evict();
+    }
+
+    private OwnerEntry ownerEntryOf(StateAndRef<MyCashState> state) {
+        final CordaX500Name owner = state.getState().getData().getOwner().nameOrNull();
+        return owner == null ? null : owners.get(owner);
+    }
+
+    private void add(OwnerEntry entry, StateAndRef<MyCashState> state) {
+        if (entry.states.put(state.getRef(), state) == null) {
+            ++cachedStates;
+        }
+    }
+
+    private void evict() {
+        final Iterator<OwnerEntry> eldest = owners.values().iterator();
+        // The most recently used owner is never evicted, even when it alone is over the state limit.
+        while ((owners.size() > maxOwners || cachedStates > maxStates) && owners.size() > 1) {
+            final OwnerEntry evicted = eldest.next();
+            cachedStates -= evicted.states.size();
+            eldest.remove();
+        }
+    }
+
+    private static class OwnerEntry {
+        private final LinkedHashMap<StateRef, StateAndRef<MyCashState>> states = new LinkedHashMap<>();
+        private boolean loading;
+        private Set<StateRef> consumedWhileLoading;
+
+        private OwnerEntry(boolean loading) {
+            this.loading = loading;
+            this.consumedWhileLoading = loading ? new HashSet<>() : null;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.bank.webserver;
+
+import com.bank.MyCashFlows;
+import net.corda.core.contracts.Amount;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs batches of payments as TransferMyCash flows, a bounded number at a time.
+ *
+ * All batches share one queue and one concurrency window, so two large batches do not flood the node twice as hard.
+ * The window is a {@link GradientConcurrencyLimit} fed with every flow's latency: it widens while the node keeps up
+ * and narrows as soon as flows start queueing behind each other. A flow that fails with a FlowException counts as a
+ * normal sample, since the node answered; any other failure counts as overload.
+ *
+ * Flows are started on a single dispatcher thread, never on the RPC thread that completes the previous flow. Items
+ * that do not parse are rejected when the batch is submitted and never reach the node. The newest maxRetained
+ * finished batches are kept for their status to be read.
+ */
+@Component
+public class BatchPayments {
+    private final static Logger logger = LoggerFactory.getLogger(BatchPayments.class);
+
+    public enum Status {
+        PENDING, RUNNING, COMPLETED, FAILED, REJECTED
+    }
+
+    private final NodeRPCConnection rpc;
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "batch-payments-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The most payments accepted in one batch.
+    @Value("${config.batch.maxItems:10000}")
+    private int maxItems;
+    // The most finished batches whose status is kept.
+    @Value("${config.batch.maxRetained:100}")
+    private int maxRetained;
+    // Flows in flight before the first latency is known.
+    @Value("${config.batch.initialConcurrency:8}")
+    private int initialConcurrency;
+    @Value("${config.batch.minConcurrency:1}")
+    private int minConcurrency;
+    @Value("${config.batch.maxConcurrency:256}")
+    private int maxConcurrency;
+
+    private GradientConcurrencyLimit limit;
+    private final ArrayDeque<Item> pending = new ArrayDeque<>();
+    private final LinkedHashMap<String, Batch> batches = new LinkedHashMap<>();
+    private int inFlight = 0;
+
+    public BatchPayments(NodeRPCConnection rpc) {
+        this.rpc = rpc;
+    }
+
+    @PostConstruct
+    public void start() {
+        limit = new GradientConcurrencyLimit(initialConcurrency, minConcurrency, maxConcurrency, 0.9, 1000);
+    }
+
+    @PreDestroy
+    public void stop() {
+        dispatcher.shutdownNow();
+    }
+
+    /**
+     * Queues one TransferMyCash per entry, each with the keys to (an X500 name), amount and currency.
+     */
+    public Batch submit(List<Map<String, String>> transfers) {
+        if (transfers.isEmpty() || transfers.size() > maxItems) {
+            throw new IllegalArgumentException("A batch holds 1 to " + maxItems + " payments but got " + transfers.size());
+        }
+
+        final Batch batch = new Batch(UUID.randomUUID().toString(), transfers.size());
+        final Map<String, Party> parties = new HashMap<>();
+        for (Map<String, String> transfer : transfers) {
+            final Item item = new Item(batch, batch.items.size(), transfer);
+            batch.items.add(item);
+            try {
+                item.amount = Amount.fromDecimal(new BigDecimal(transfer.get("amount")), Currency.getInstance(transfer.get("currency")));
+                if (item.amount.getQuantity() <= 0) {
+                    throw new IllegalArgumentException("Amount must be positive but was " + transfer.get("amount"));
+                }
+                final String to = transfer.get("to");
+                item.newOwner = parties.computeIfAbsent(to, name -> rpc.proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(name)));
+                if (item.newOwner == null) {
+                    throw new IllegalArgumentException("Unknown owner " + to);
+                }
+            } catch (IllegalArgumentException | NullPointerException e) {
+                item.finish(Status.REJECTED, null, e.getMessage() == null ? "to, amount and currency are required" : e.getMessage(), -1);
+            }
+        }
+
+        synchronized (this) {
+            batches.put(batch.id, batch);
+            evictFinished();
+            for (Item item : batch.items) {
+                if (item.status == Status.PENDING) {
+                    pending.add(item);
+                }
+            }
+        }
+        dispatcher.execute(this::pump);
+        return batch;
+    }
+
+    public synchronized Batch batch(String id) {
+        return batches.get(id);
+    }
+
+    public int getConcurrencyLimit() {
+        return limit.getLimit();
+    }
+
+    /* --- the latency the window takes for an unloaded node, 0 until a sample came in since the last probe --- */
+    public long getNoLoadLatencyNanos() {
+        return limit.getNoLoadLatencyNanos();
+    }
+
+    public long getLastLatencyNanos() {
+        return limit.getLastLatencyNanos();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /* ----------------- Dispatch ------------------------------------------------------------------------------- */
+
+    private void pump() {
+        while (true) {
+            final Item item;
+            final int inFlightAtStart;
+            synchronized (this) {
+                if (pending.isEmpty() || inFlight >= limit.getLimit()) {
+                    return;
+                }
+                item = pending.poll();
+                inFlightAtStart = ++inFlight;
+            }
+            run(item, inFlightAtStart);
+        }
+    }
+
+    private void run(Item item, int inFlightAtStart) {
+        final long start = System.nanoTime();
+        try {
+            final FlowHandle<SignedTransaction> handle = rpc.proxy.startFlowDynamic(
+                    MyCashFlows.TransferMyCash.class, item.newOwner, item.amount);
+            item.running(handle.getId().getUuid().toString());
+            handle.getReturnValue().toCompletableFuture().whenComplete((signedTx, error) ->
+                    finished(item, start, inFlightAtStart, signedTx, error));
+        } catch (RuntimeException e) {
+            finished(item, start, inFlightAtStart, null, e);
+        }
+    }
+
+    private void finished(Item item, long start, int inFlightAtStart, SignedTransaction signedTx, Throwable error) {
+        final long latencyNanos = System.nanoTime() - start;
+        final long latencyMillis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        if (error == null) {
+            limit.onSample(latencyNanos, inFlightAtStart, false);
+            item.finish(Status.COMPLETED, signedTx.getId().toString(), null, latencyMillis);
+        } else {
+            final Throwable cause = Controller.unwrap(error);
+            logger.debug("Batch {} payment {} failed", item.batch.id, item.index, cause);
+            limit.onSample(latencyNanos, inFlightAtStart, !(cause instanceof FlowException));
+            item.finish(Status.FAILED, null, String.valueOf(cause.getMessage()), latencyMillis);
+        }
+
+        synchronized (this) {
+            --inFlight;
+        }
+        if (!dispatcher.isShutdown()) {
+            dispatcher.execute(this::pump);
+        }
+    }
+
+    /* --- holds the lock --- */
+    private void evictFinished() {
+        final Iterator<Batch> oldestFirst = batches.values().iterator();
+        int finished = 0;
+        for (Batch batch : batches.values()) {
+            if (batch.done.isDone()) {
+                ++finished;
+            }
+        }
+        while (finished > maxRetained && oldestFirst.hasNext()) {
+            if (oldestFirst.next().done.isDone()) {
+                oldestFirst.remove();
+                --finished;
+            }
+        }
+    }
+
+    /* ----------------- Batches -------------------------------------------------------------------------------- */
+
+    public static class Batch {
+        private final String id;
+        private final List<Item> items;
+        private final AtomicInteger unfinished;
+        private final CompletableFuture<Batch> done = new CompletableFuture<>();
+
+        private Batch(String id, int size) {
+            this.id = id;
+            this.items = new ArrayList<>(size);
+            this.unfinished = new AtomicInteger(size);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Completes once every payment of the batch has finished, whichever way.
+         */
+        public CompletableFuture<Batch> getDone() {
+            return done;
+        }
+
+        /**
+         * Counts per status and, if withItems, every payment's status.
+         */
+        public Map<String, Object> toMap(boolean withItems) {
+            final Map<String, Integer> counts = new LinkedHashMap<>();
+            for (Status status : Status.values()) {
+                counts.put(status.name().toLowerCase(), 0);
+            }
+            final List<Map<String, Object>> rows = new ArrayList<>(withItems ? items.size() : 0);
+            for (Item item : items) {
+                final Map<String, Object> row = item.toMap();
+                counts.merge(((Status) row.get("status")).name().toLowerCase(), 1, Integer::sum);
+                if (withItems) {
+                    rows.add(row);
+                }
+            }
+
+            final Map<String, Object> body = new LinkedHashMap<>();
+            body.put("batchId", id);
+            body.put("size", items.size());
+            body.put("done", done.isDone());
+            body.putAll(counts);
+            if (withItems) {
+                body.put("items", rows);
+            }
+            return body;
+        }
+    }
+
+    private static class Item {
+        private final Batch batch;
+        private final int index;
+        private final Map<String, String> request;
+        private Amount<Currency> amount;
+        private Party newOwner;
+        private volatile Status status = Status.PENDING;
+        private String flowId;
+        private String txId;
+        private String error;
+        private long latencyMillis = -1;
+
+        private Item(Batch batch, int index, Map<String, String> request) {
+            this.batch = batch;
+            this.index = index;
+            this.request = request;
+        }
+
+        private synchronized void running(String flowId) {
+            this.flowId = flowId;
+            if (status == Status.PENDING) {
+                status = Status.RUNNING;
+            }
+        }
+
+        private void finish(Status status, String txId, String error, long latencyMillis) {
+            synchronized (this) {
+                this.status = status;
+                this.txId = txId;
+                this.error = error;
+                this.latencyMillis = latencyMillis;
+            }
+            if (batch.unfinished.decrementAndGet() == 0) {
+                batch.done.complete(batch);
+            }
+        }
+
+        private synchronized Map<String, Object> toMap() {
+            final Map<String, Object> row = new LinkedHashMap<>();
+            row.put("index", index);
+            row.put("to", request.get("to"));
+            row.put("amount", request.get("amount"));
+            row.put("currency", request.get("currency"));
+            row.put("status", status);
+            row.put("flowId", flowId);
+            row.put("txId", txId);
+            row.put("error", error);
+            row.put("latencyMillis", latencyMillis < 0 ? null : latencyMillis);
+            return row;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.bank.webserver;
+
+import com.bank.MyCashState;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import net.corda.core.node.services.vault.Sort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+import rx.Subscription;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes MyCashState produced and consumed events to STOMP subscribers of /user/queue/cash-events.
+ *
+ * The webserver holds one vault updates subscription for all browsers. The RPC observable thread only turns an
+ * update into events and appends them to the bounded buffer of every matching session; sending happens on a
+ * separate drain pool, so a slow browser fills its own buffer and never stalls the observable or other sessions.
+ *
+ * Subscribers choose with STOMP SUBSCRIBE headers:
+ * - owner: an X500 name, only that owner's states are sent. All owners when absent.
+ * - policy: what happens when the session's buffer is full, see {@link OverflowPolicy}. DROP_OLDEST when absent.
+ *
+ * Every message is a batch {"subscription": id, "dropped": n, "events": [...]}, where dropped counts the events this
+ * subscription lost since the previous batch. A session may subscribe more than once, e.g. once per owner; each
+ * subscription has its own buffer, and as they share the session's queue the browser routes batches by
+ * subscription. After a lost vault feed every session gets a batch with "resync": true, telling the browser to
+ * reload its state, e.g. from /cache/balances.
+ */
+@Component
+public class CashEventStream {
+    private final static Logger logger = LoggerFactory.getLogger(CashEventStream.class);
+
+    public static final String SUBSCRIPTION_DESTINATION = "/user/queue/cash-events";
+    private static final String USER_DESTINATION = "/queue/cash-events";
+    private static final long MIN_RESUBSCRIBE_DELAY_SECONDS = 1;
+    private static final long MAX_RESUBSCRIBE_DELAY_SECONDS = 60;
+
+    /**
+     * What a session's buffer does with a new event when it is full.
+     */
+    public enum OverflowPolicy {
+        /** Drop the oldest buffered event. */
+        DROP_OLDEST,
+        /** A consumed event cancels the still buffered produced event of the same state, then drop the oldest. */
+        COALESCE
+    }
+
+    private final NodeRPCConnection rpc;
+    private final SimpMessagingTemplate messagingTemplate;
+    // By session id and subscription id, see key.
+    private final Map<String, SessionBuffer> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService feedExecutor = Executors.newSingleThreadScheduledExecutor(daemon("cash-events-feed"));
+    private ExecutorService drainExecutor;
+
+    // The most events buffered for one session.
+    @Value("${config.ws.sessionBufferSize:256}")
+    private int sessionBufferSize;
+    // The most events sent to one session in one message.
+    @Value("${config.ws.batchSize:64}")
+    private int batchSize;
+    // Threads sending buffered events to browsers.
+    @Value("${config.ws.drainThreads:2}")
+    private int drainThreads;
+
+    private Subscription subscription = null;
+    private volatile long generation = 0;
+    private long resubscribeDelaySeconds = MIN_RESUBSCRIBE_DELAY_SECONDS;
+
+    public CashEventStream(NodeRPCConnection rpc, SimpMessagingTemplate messagingTemplate) {
+        this.rpc = rpc;
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    @PostConstruct
+    public void start() {
+        drainExecutor = Executors.newFixedThreadPool(drainThreads, daemon("cash-events-drain"));
+        rpc.addReconnectListener(() -> feedExecutor.execute(this::subscribe));
+        feedExecutor.execute(this::subscribe);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        ++generation;
+        if (subscription != null) {
+            subscription.unsubscribe();
+        }
+        feedExecutor.shutdownNow();
+        drainExecutor.shutdownNow();
+    }
+
+    /* ----------------- Sessions ------------------------------------------------------------------------------- */
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        final StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        if (!SUBSCRIPTION_DESTINATION.equals(headers.getDestination())) {
+            return;
+        }
+
+        final String owner = headers.getFirstNativeHeader("owner");
+        final String policy = headers.getFirstNativeHeader("policy");
+        try {
+            final SessionBuffer buffer = new SessionBuffer(headers.getSessionId(), headers.getSubscriptionId(),
+                    owner == null ? null : CordaX500Name.parse(owner),
+                    policy == null ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.valueOf(policy));
+            sessions.put(key(buffer.sessionId, buffer.subscriptionId), buffer);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring cash events subscription of session {}: {}", headers.getSessionId(), e.getMessage());
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        final StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        sessions.remove(key(headers.getSessionId(), headers.getSubscriptionId()));
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessions.values().removeIf(buffer -> buffer.sessionId.equals(event.getSessionId()));
+    }
+
+    private static String key(String sessionId, String subscriptionId) {
+        return sessionId + "/" + subscriptionId;
+    }
+
+    /* ----------------- The shared vault feed ------------------------------------------------------------------ */
+
+    private void subscribe() {
+        final long feedGeneration;
+        synchronized (this) {
+            feedGeneration = ++generation;
+            if (subscription != null) {
+                subscription.unsubscribe();
+                subscription = null;
+            }
+        }
+
+        try {
+            // Only the updates are used, the snapshot is kept to a single state.
+            final Subscription feedSubscription = rpc.proxy.vaultTrackBy(
+                    new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED),
+                    new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, 1),
+                    new Sort(Collections.emptySet()),
+                    MyCashState.class).getUpdates().subscribe(
+                    update -> onUpdate(feedGeneration, update),
+                    error -> scheduleResubscribe(feedGeneration, error));
+            synchronized (this) {
+                if (feedGeneration != generation) {
+                    feedSubscription.unsubscribe();
+                    return;
+                }
+                subscription = feedSubscription;
+                resubscribeDelaySeconds = MIN_RESUBSCRIBE_DELAY_SECONDS;
+            }
+            if (feedGeneration > 1) {
+                // Anything could have happened while we were not subscribed.
+                for (SessionBuffer buffer : sessions.values()) {
+                    buffer.offerResync();
+                }
+            }
+        } catch (RuntimeException e) {
+            scheduleResubscribe(feedGeneration, e);
+        }
+    }
+
+    private synchronized void scheduleResubscribe(long feedGeneration, Throwable error) {
+        if (feedGeneration != generation || feedExecutor.isShutdown()) {
+            return;
+        }
+        logger.warn("Cash events lost the vault feed, resubscribing in {}s", resubscribeDelaySeconds, error);
+        feedExecutor.schedule(this::subscribe, resubscribeDelaySeconds, TimeUnit.SECONDS);
+        resubscribeDelaySeconds = Math.min(resubscribeDelaySeconds * 2, MAX_RESUBSCRIBE_DELAY_SECONDS);
+    }
+
+    /* --- runs on the RPC observable thread: build every event once, then only append to buffers --- */
+    private void onUpdate(long feedGeneration, Vault.Update<MyCashState> update) {
+        if (feedGeneration != generation || sessions.isEmpty()) {
+            return;
+        }
+        final List<CashEvent> events = new ArrayList<>(update.getConsumed().size() + update.getProduced().size());
+        for (StateAndRef<MyCashState> consumed : update.getConsumed()) {
+            events.add(new CashEvent("CONSUMED", consumed));
+        }
+        for (StateAndRef<MyCashState> produced : update.getProduced()) {
+            events.add(new CashEvent("PRODUCED", produced));
+        }
+        for (SessionBuffer buffer : sessions.values()) {
+            for (CashEvent event : events) {
+                buffer.offer(event);
+            }
+        }
+    }
+
+    /* ----------------- Per session buffering and draining ----------------------------------------------------- */
+
+    private static class CashEvent {
+        private final String stateRef;
+        private final CordaX500Name owner;
+        private final boolean consumed;
+        private final Map<String, Object> payload;
+
+        private CashEvent(String type, StateAndRef<MyCashState> stateAndRef) {
+            final MyCashState state = stateAndRef.getState().getData();
+            this.stateRef = stateAndRef.getRef().toString();
+            this.owner = state.getOwner().nameOrNull();
+            this.consumed = type.equals("CONSUMED");
+            this.payload = ImmutableMap.<String, Object>builder()
+                    .put("type", type)
+                    .put("stateRef", stateRef)
+                    .put("linearId", state.getLinearId().toString())
+                    .put("owner", state.getOwner().toString())
+                    .put("bank", state.getBank().toString())
+                    .put("currency", state.getAmount().getToken().getCurrencyCode())
+                    .put("quantity", state.getAmount().getQuantity())
+                    .build();
+        }
+    }
+
+    private class SessionBuffer {
+        private final String sessionId;
+        private final String subscriptionId;
+        private final CordaX500Name owner;
+        private final OverflowPolicy policy;
+        private final ArrayDeque<CashEvent> events = new ArrayDeque<>();
+        // COALESCE only: the buffered produced events by state ref.
+        private final Map<String, CashEvent> bufferedProduced = new HashMap<>();
+        private long dropped = 0;
+        private boolean resync = false;
+        private boolean draining = false;
+
+        private SessionBuffer(String sessionId, String subscriptionId, CordaX500Name owner, OverflowPolicy policy) {
+            this.sessionId = sessionId;
+            this.subscriptionId = subscriptionId;
+            this.owner = owner;
+            this.policy = policy;
+        }
+
+        private void offer(CashEvent event) {
+            if (owner != null && !owner.equals(event.owner)) {
+                return;
+            }
+            synchronized (this) {
+                if (policy == OverflowPolicy.COALESCE && event.consumed) {
+                    final CashEvent produced = bufferedProduced.remove(event.stateRef);
+                    if (produced != null) {
+                        // The browser never saw the state, it does not need to see it go either.
+                        events.remove(produced);
+                        return;
+                    }
+                }
+                if (events.size() >= sessionBufferSize) {
+                    forget(events.pollFirst());
+                    ++dropped;
+                }
+                events.addLast(event);
+                if (policy == OverflowPolicy.COALESCE && !event.consumed) {
+                    bufferedProduced.put(event.stateRef, event);
+                }
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            drainExecutor.execute(this::drain);
+        }
+
+        private void offerResync() {
+            synchronized (this) {
+                dropped += events.size();
+                events.clear();
+                bufferedProduced.clear();
+                resync = true;
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            drainExecutor.execute(this::drain);
+        }
+
+        private void forget(CashEvent event) {
+            if (event != null && !event.consumed) {
+                bufferedProduced.remove(event.stateRef);
+            }
+        }
+
+        /* --- sends one batch, then gives the drain thread to the next session if more is buffered --- */
+        private void drain() {
+            final List<Map<String, Object>> batch = new ArrayList<>(Math.min(batchSize, sessionBufferSize));
+            final long batchDropped;
+            final boolean batchResync;
+            synchronized (this) {
+                final Iterator<CashEvent> buffered = events.iterator();
+                while (buffered.hasNext() && batch.size() < batchSize) {
+                    final CashEvent event = buffered.next();
+                    buffered.remove();
+                    forget(event);
+                    batch.add(event.payload);
+                }
+                batchDropped = dropped;
+                batchResync = resync;
+                dropped = 0;
+                resync = false;
+                if (batch.isEmpty() && !batchResync) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            if (sessions.get(key(sessionId, subscriptionId)) == this) {
+                final Map<String, Object> message = new HashMap<>();
+                message.put("subscription", subscriptionId);
+                message.put("dropped", batchDropped);
+                message.put("events", batch);
+                if (batchResync) {
+                    message.put("resync", true);
+                }
+                try {
+                    messagingTemplate.convertAndSendToUser(sessionId, USER_DESTINATION, message, sessionHeaders(sessionId));
+                } catch (RuntimeException e) {
+                    logger.warn("Could not send cash events to session {}", sessionId, e);
+                }
+            }
+            drainExecutor.execute(this::drain);
+        }
+    }
+
+    private static Map<String, Object> sessionHeaders(String sessionId) {
+        final SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        return headers.getMessageHeaders();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
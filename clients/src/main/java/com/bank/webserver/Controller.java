@@ -1,11 +1,42 @@
 package com.bank.webserver;
 
+import com.bank.MyCashBalance;
+import com.bank.MyCashFlows;
+import com.bank.MyCashState;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
 import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.transactions.SignedTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Define your API endpoints here.
@@ -13,15 +44,306 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/") // The paths for HTTP requests are relative to this base path.
 public class Controller {
+    private final NodeRPCConnection rpc;
     private final CordaRPCOps proxy;
+    private final BalanceCache balanceCache;
+    private final BatchPayments batchPayments;
+    // How long a flow endpoint waits for the flow before answering 202 with the flow id instead.
+    private final long flowTimeoutMillis;
     private final static Logger logger = LoggerFactory.getLogger(Controller.class);
 
-    public Controller(NodeRPCConnection rpc) {
+    public Controller(NodeRPCConnection rpc, BalanceCache balanceCache, BatchPayments batchPayments,
+                      @Value("${config.flow.timeoutMillis:120000}") long flowTimeoutMillis) {
+        this.rpc = rpc;
         this.proxy = rpc.proxy;
+        this.balanceCache = balanceCache;
+        this.batchPayments = batchPayments;
+        this.flowTimeoutMillis = flowTimeoutMillis;
     }
 
     @GetMapping(value = "/templateendpoint", produces = "text/plain")
     private String templateendpoint() {
         return "Define an endpoint here.";
     }
-}
\ No newline at end of file
+
+    /**
+     * Unconsumed MyCash per owner and currency, summed in the vault of the node we are connected to. Only owners
+     * hold their cash, so that is the node's own cash and not what it issued or paid to others. Pass an X500 name
+     * as owner to get only that owner's balances.
+     */
+    @GetMapping(value = "/balances", produces = "application/json")
+    private DeferredResult<ResponseEntity<?>> balances(@RequestParam(value = "owner", required = false) String owner) {
+        Party ownerParty = null;
+        if (owner != null) {
+            try {
+                ownerParty = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(owner));
+            } catch (IllegalArgumentException e) {
+                return immediately(ResponseEntity.badRequest().body("Invalid owner name " + owner + ": " + e.getMessage()));
+            }
+            if (ownerParty == null) {
+                return immediately(ResponseEntity.badRequest().body("Unknown owner " + owner));
+            }
+        }
+
+        return whenFinished(proxy.startFlowDynamic(MyCashFlows.MyCashBalanceFlow.class, ownerParty), balances -> {
+            logger.debug("Returning {} balances for owner {}", balances.size(), owner);
+            final List<Map<String, Object>> body = new ArrayList<>(balances.size());
+            for (MyCashBalance balance : balances) {
+                final Map<String, Object> row = new LinkedHashMap<>();
+                row.put("owner", balance.getOwner() == null ? null : balance.getOwner().toString());
+                row.put("currency", balance.getAmount().getToken().getCurrencyCode());
+                row.put("quantity", balance.getAmount().getQuantity());
+                row.put("amount", balance.getAmount().toDecimal().toPlainString());
+                body.add(row);
+            }
+            return body;
+        });
+    }
+
+    /**
+     * One owner's balances from the webserver's cache, without a round trip to the node when the owner is cached.
+     */
+    @GetMapping(value = "/cache/balances", produces = "application/json")
+    private ResponseEntity<?> cachedBalances(@RequestParam("owner") String owner) {
+        final CordaX500Name ownerName;
+        try {
+            ownerName = CordaX500Name.parse(owner);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid owner name " + owner + ": " + e.getMessage());
+        }
+
+        final List<Map<String, Object>> body = new ArrayList<>();
+        for (Amount<Currency> amount : balanceCache.balances(ownerName)) {
+            final Map<String, Object> row = new LinkedHashMap<>();
+            row.put("owner", ownerName.toString());
+            row.put("currency", amount.getToken().getCurrencyCode());
+            row.put("quantity", amount.getQuantity());
+            row.put("amount", amount.toDecimal().toPlainString());
+            body.add(row);
+        }
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * One owner's unconsumed states from the webserver's cache.
+     */
+    @GetMapping(value = "/cache/states", produces = "application/json")
+    private ResponseEntity<?> cachedStates(@RequestParam("owner") String owner) {
+        final CordaX500Name ownerName;
+        try {
+            ownerName = CordaX500Name.parse(owner);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid owner name " + owner + ": " + e.getMessage());
+        }
+
+        final List<Map<String, Object>> body = new ArrayList<>();
+        for (StateAndRef<MyCashState> stateAndRef : balanceCache.states(ownerName)) {
+            final MyCashState state = stateAndRef.getState().getData();
+            final Map<String, Object> row = new LinkedHashMap<>();
+            row.put("stateRef", stateAndRef.getRef().toString());
+            row.put("linearId", state.getLinearId().toString());
+            row.put("bank", state.getBank().toString());
+            row.put("currency", state.getAmount().getToken().getCurrencyCode());
+            row.put("quantity", state.getAmount().getQuantity());
+            body.add(row);
+        }
+        return ResponseEntity.ok(body);
+    }
+
+    /**
+     * Health and load of each pooled RPC connection.
+     */
+    @GetMapping(value = "/rpc/metrics", produces = "application/json")
+    private List<Map<String, Object>> rpcMetrics() {
+        return rpc.metrics();
+    }
+
+    /* ----------------- Flows ------------------------------------------------------------------------------------ */
+
+    /**
+     * Issues amount of currency to this node, which must be the bank.
+     */
+    @PostMapping(value = "/cash/issue", produces = "application/json")
+    private DeferredResult<ResponseEntity<?>> issue(@RequestParam("amount") String amount,
+                                                    @RequestParam("currency") String currency) {
+        final Amount<Currency> issued;
+        try {
+            issued = amount(amount, currency);
+        } catch (IllegalArgumentException e) {
+            return immediately(ResponseEntity.badRequest().body(e.getMessage()));
+        }
+        return whenFinished(proxy.startFlowDynamic(MyCashFlows.IssueMyCashFlow.class, issued));
+    }
+
+    /**
+     * Transfers amount of currency from this node to the X500 name to. The states are picked by coin selection
+     * unless linearIds are given.
+     */
+    @PostMapping(value = "/cash/transfer", produces = "application/json")
+    private DeferredResult<ResponseEntity<?>> transfer(@RequestParam("to") String to,
+                                                       @RequestParam("amount") String amount,
+                                                       @RequestParam("currency") String currency,
+                                                       @RequestParam(value = "linearIds", required = false) List<String> linearIds) {
+        final Amount<Currency> transferred;
+        final UniqueIdentifier[] ids;
+        final Party newOwner;
+        try {
+            transferred = amount(amount, currency);
+            ids = linearIds == null ? null : linearIds(linearIds);
+            newOwner = proxy.wellKnownPartyFromX500Name(CordaX500Name.parse(to));
+        } catch (IllegalArgumentException e) {
+            return immediately(ResponseEntity.badRequest().body(e.getMessage()));
+        }
+        if (newOwner == null) {
+            return immediately(ResponseEntity.badRequest().body("Unknown owner " + to));
+        }
+
+        final FlowHandle<SignedTransaction> handle = ids == null
+                ? proxy.startFlowDynamic(MyCashFlows.TransferMyCash.class, newOwner, transferred)
+                : proxy.startFlowDynamic(MyCashFlows.TransferMyCash.class, ids, newOwner, transferred);
+        return whenFinished(handle);
+    }
+
+    /**
+     * Destroys the states with the given linearIds, which this node must own.
+     */
+    @PostMapping(value = "/cash/destroy", produces = "application/json")
+    private DeferredResult<ResponseEntity<?>> destroy(@RequestParam("linearIds") List<String> linearIds,
+                                                      @RequestParam("amount") String amount,
+                                                      @RequestParam("currency") String currency) {
+        final Amount<Currency> destroyed;
+        final UniqueIdentifier[] ids;
+        try {
+            destroyed = amount(amount, currency);
+            ids = linearIds(linearIds);
+        } catch (IllegalArgumentException e) {
+            return immediately(ResponseEntity.badRequest().body(e.getMessage()));
+        }
+        return whenFinished(proxy.startFlowDynamic(MyCashFlows.DestroyMyCash.class, ids, destroyed));
+    }
+
+    /**
+     * Queues a list of {"to", "amount", "currency"} payments as TransferMyCash flows and answers 202 at once with
+     * the batch id. The payments run in a window that adapts to the node's flow latency, see {@link BatchPayments}.
+     */
+    @PostMapping(value = "/cash/transfers/batch", consumes = "application/json", produces = "application/json")
+    private ResponseEntity<?> submitBatch(@RequestBody List<Map<String, String>> transfers) {
+        final BatchPayments.Batch batch;
+        try {
+            batch = batchPayments.submit(transfers);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+        final Map<String, Object> body = batch.toMap(false);
+        body.put("concurrencyLimit", batchPayments.getConcurrencyLimit());
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(body);
+    }
+
+    /**
+     * Every payment's status in a batch. With waitMillis the answer is held until the batch is done or that long
+     * has passed, without holding a servlet thread.
+     */
+    @GetMapping(value = "/cash/transfers/batch/{batchId}", produces = "application/json")
+    private DeferredResult<ResponseEntity<?>> batchStatus(@PathVariable("batchId") String batchId,
+                                                          @RequestParam(value = "waitMillis", defaultValue = "0") long waitMillis) {
+        final BatchPayments.Batch batch = batchPayments.batch(batchId);
+        if (batch == null) {
+            return immediately(ResponseEntity.notFound().build());
+        }
+        if (waitMillis <= 0 || batch.getDone().isDone()) {
+            return immediately(ResponseEntity.ok(batch.toMap(true)));
+        }
+
+        final DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(Math.min(waitMillis, flowTimeoutMillis));
+        result.onTimeout(() -> result.setResult(ResponseEntity.ok(batch.toMap(true))));
+        batch.getDone().thenAccept(done -> result.setResult(ResponseEntity.ok(done.toMap(true))));
+        return result;
+    }
+
+    /**
+     * The batch window, how much of it is in use and the latencies it is sized by.
+     */
+    @GetMapping(value = "/cash/transfers/batch", produces = "application/json")
+    private Map<String, Object> batchWindow() {
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("concurrencyLimit", batchPayments.getConcurrencyLimit());
+        body.put("inFlight", batchPayments.getInFlight());
+        body.put("noLoadLatencyMillis", TimeUnit.NANOSECONDS.toMillis(batchPayments.getNoLoadLatencyNanos()));
+        body.put("lastLatencyMillis", TimeUnit.NANOSECONDS.toMillis(batchPayments.getLastLatencyNanos()));
+        return body;
+    }
+
+    /**
+     * Completes from the flow's return value instead of parking a servlet thread on it, so the number of flows in
+     * flight is not bounded by the size of the servlet thread pool.
+     */
+    private DeferredResult<ResponseEntity<?>> whenFinished(FlowHandle<SignedTransaction> handle) {
+        final String flowId = handle.getId().getUuid().toString();
+        return whenFinished(handle, signedTx -> {
+            final Map<String, Object> body = new LinkedHashMap<>();
+            body.put("flowId", flowId);
+            body.put("status", "COMPLETED");
+            body.put("txId", signedTx.getId().toString());
+            return body;
+        });
+    }
+
+    /**
+     * The same for a flow that returns something else than a transaction, answered with what completed makes of it.
+     */
+    private <R> DeferredResult<ResponseEntity<?>> whenFinished(FlowHandle<R> handle, Function<R, Object> completed) {
+        final String flowId = handle.getId().getUuid().toString();
+        final Map<String, Object> pending = new LinkedHashMap<>();
+        pending.put("flowId", flowId);
+        pending.put("status", "RUNNING");
+
+        final DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(flowTimeoutMillis,
+                ResponseEntity.status(HttpStatus.ACCEPTED).body(pending));
+        handle.getReturnValue().toCompletableFuture().whenComplete((returned, error) -> {
+            if (error == null) {
+                result.setResult(ResponseEntity.ok(completed.apply(returned)));
+                return;
+            }
+            final Throwable cause = unwrap(error);
+            logger.debug("Flow {} failed", flowId, cause);
+            final Map<String, Object> body = new LinkedHashMap<>();
+            body.put("flowId", flowId);
+            body.put("status", "FAILED");
+            body.put("error", String.valueOf(cause.getMessage()));
+            // A FlowException is the flow refusing the request, anything else is our side failing.
+            result.setResult(ResponseEntity.status(cause instanceof FlowException
+                    ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR).body(body));
+        });
+        return result;
+    }
+
+    private static DeferredResult<ResponseEntity<?>> immediately(ResponseEntity<?> response) {
+        final DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+        result.setResult(response);
+        return result;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static Amount<Currency> amount(String amount, String currency) {
+        final Amount<Currency> parsed = Amount.fromDecimal(new BigDecimal(amount), Currency.getInstance(currency));
+        if (parsed.getQuantity() <= 0) {
+            throw new IllegalArgumentException("Amount must be positive but was " + amount);
+        }
+        return parsed;
+    }
+
+    private static UniqueIdentifier[] linearIds(List<String> linearIds) {
+        final UniqueIdentifier[] ids = new UniqueIdentifier[linearIds.size()];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = new UniqueIdentifier(null, UUID.fromString(linearIds.get(i)));
+        }
+        return ids;
+    }
+}
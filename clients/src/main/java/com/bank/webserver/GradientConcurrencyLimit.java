@@ -0,0 +1,84 @@
+package com.bank.webserver;
+
+/**
+ * A concurrency limit that follows the latency of the work it admits.
+ *
+ * The shortest latency seen is taken as the latency of an unloaded node. While samples stay close to it the limit
+ * grows by about the square root of itself per sample; once latency rises, queueing has started somewhere and the
+ * limit is scaled down by the ratio of the two:
+ *
+ *     newLimit = limit * clamp(noLoadLatency / latency, 0.5, 1) + sqrt(limit)
+ *
+ * Failures that are not the work's own fault, e.g. timeouts or lost connections, cut the limit by backoffRatio.
+ * The limit only grows while at least half of it is used, so an idle period cannot inflate it. The no-load latency
+ * is forgotten every probeInterval samples, so a node that got slower for good is measured again.
+ */
+class GradientConcurrencyLimit {
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final int probeInterval;
+
+    private double limit;
+    private long noLoadLatencyNanos = 0;
+    private long lastLatencyNanos = 0;
+    private long samples = 0;
+
+    GradientConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, int probeInterval) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit but got " + minLimit + " and " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.probeInterval = probeInterval;
+        this.limit = clamp(initialLimit);
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized long getNoLoadLatencyNanos() {
+        return noLoadLatencyNanos;
+    }
+
+    synchronized long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Records one finished piece of work.
+     *
+     * @param latencyNanos how long it took.
+     * @param inFlight     how much work was in flight when it started.
+     * @param overloaded   whether it failed in a way that suggests the node is overloaded.
+     */
+    synchronized void onSample(long latencyNanos, int inFlight, boolean overloaded) {
+        lastLatencyNanos = latencyNanos;
+        if (++samples % probeInterval == 0) {
+            noLoadLatencyNanos = 0;
+        }
+        if (overloaded) {
+            limit = clamp(limit * backoffRatio);
+            return;
+        }
+        if (noLoadLatencyNanos == 0 || latencyNanos < noLoadLatencyNanos) {
+            noLoadLatencyNanos = Math.max(1, latencyNanos);
+        }
+
+        final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, (double) noLoadLatencyNanos / Math.max(1, latencyNanos)));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (inFlight < limit / 2) {
+            newLimit = Math.min(newLimit, limit);
+        }
+        limit = clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
@@ -2,21 +2,49 @@ package com.bank.webserver;
 
 import net.corda.client.rpc.CordaRPCClient;
 import net.corda.client.rpc.CordaRPCConnection;
+import net.corda.client.rpc.RPCException;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.utilities.NetworkHostAndPort;
+import org.apache.activemq.artemis.api.core.ActiveMQException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Wraps an RPC connection to a Corda node.
+ * Wraps a pool of RPC connections to a Corda node.
  *
  * The RPC connection is configured using command line arguments.
+ *
+ * proxy dispatches every call to one of the healthy connections, round robin or to the one with the fewest calls in
+ * flight. A connection that fails a call with a transport error, or fails a health check, is closed and reopened in
+ * the background with exponential backoff, while the other connections keep serving. Components whose observables
+ * came from a lost connection register a reconnect listener and subscribe again.
  */
 @Component
 public class NodeRPCConnection implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(NodeRPCConnection.class);
+
+    public enum Dispatch {
+        ROUND_ROBIN, LEAST_BUSY
+    }
+
     // The host of the node we are connecting to.
     @Value("${config.rpc.host}")
     private String host;
@@ -29,20 +57,249 @@ public class NodeRPCConnection implements AutoCloseable {
     // The password for logging into the RPC client.
     @Value("${config.rpc.port}")
     private int rpcPort;
+    // How many connections the pool holds.
+    @Value("${config.rpc.poolSize:4}")
+    private int poolSize;
+    // How calls are spread over the connections.
+    @Value("${config.rpc.dispatch:ROUND_ROBIN}")
+    private Dispatch dispatch;
+    // How often every healthy connection is checked with a cheap call.
+    @Value("${config.rpc.healthCheckSeconds:10}")
+    private int healthCheckSeconds;
+    // The longest wait between two attempts to reopen a connection.
+    @Value("${config.rpc.maxBackoffSeconds:60}")
+    private int maxBackoffSeconds;
 
-    private CordaRPCConnection rpcConnection;
+    private final List<PooledConnection> pool = new ArrayList<>();
+    private final List<Runnable> reconnectListeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "rpc-pool-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private NetworkHostAndPort rpcAddress;
+    private volatile boolean closed = false;
     CordaRPCOps proxy;
 
     @PostConstruct
     public void initialiseNodeRPCConnection() {
-        NetworkHostAndPort rpcAddress = new NetworkHostAndPort(host, rpcPort);
-        CordaRPCClient rpcClient = new CordaRPCClient(rpcAddress);
-        rpcConnection = rpcClient.start(username, password);
-        proxy = rpcConnection.getProxy();
+        rpcAddress = new NetworkHostAndPort(host, rpcPort);
+        for (int i = 0; i < Math.max(1, poolSize); ++i) {
+            final PooledConnection connection = new PooledConnection(i);
+            pool.add(connection);
+            connection.connect();
+        }
+        proxy = (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(),
+                new Class<?>[]{CordaRPCOps.class}, (target, method, args) -> invoke(method, args));
+        maintenance.scheduleWithFixedDelay(this::checkHealth, healthCheckSeconds, healthCheckSeconds, TimeUnit.SECONDS);
     }
 
     @PreDestroy
     public void close() {
-        rpcConnection.notifyServerAndClose();
+        closed = true;
+        maintenance.shutdownNow();
+        for (PooledConnection connection : pool) {
+            connection.close(true);
+        }
+    }
+
+    /**
+     * Runs after any pooled connection has been reopened, on the pool's maintenance thread.
+     */
+    public void addReconnectListener(Runnable listener) {
+        reconnectListeners.add(listener);
+    }
+
+    /**
+     * One row per pooled connection, for monitoring.
+     */
+    public List<Map<String, Object>> metrics() {
+        final List<Map<String, Object>> metrics = new ArrayList<>(pool.size());
+        for (PooledConnection connection : pool) {
+            metrics.add(connection.metrics());
+        }
+        return metrics;
+    }
+
+    /* ----------------- Dispatch ------------------------------------------------------------------------------- */
+
+    private Object invoke(Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(this);
+                default:
+                    return "NodeRPCConnection pool to " + rpcAddress;
+            }
+        }
+
+        final PooledConnection connection = choose();
+        final CordaRPCOps ops = connection.ops;
+        connection.inFlight.incrementAndGet();
+        final long start = System.nanoTime();
+        try {
+            return method.invoke(ops, args);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            connection.errors.incrementAndGet();
+            if (isTransportFailure(cause)) {
+                connection.lost(cause);
+            }
+            throw cause;
+        } finally {
+            connection.inFlight.decrementAndGet();
+            connection.calls.incrementAndGet();
+            connection.callNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private PooledConnection choose() {
+        final int size = pool.size();
+        final int offset = Math.floorMod(nextConnection.getAndIncrement(), size);
+        PooledConnection chosen = null;
+        for (int i = 0; i < size; ++i) {
+            final PooledConnection candidate = pool.get((offset + i) % size);
+            if (!candidate.healthy) {
+                continue;
+            }
+            if (dispatch == Dispatch.ROUND_ROBIN) {
+                return candidate;
+            }
+            if (chosen == null || candidate.inFlight.get() < chosen.inFlight.get()) {
+                chosen = candidate;
+            }
+        }
+        if (chosen == null) {
+            throw new IllegalStateException("No healthy RPC connection to " + rpcAddress + ", reconnecting.");
+        }
+        return chosen;
+    }
+
+    private static boolean isTransportFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RPCException || cause instanceof ActiveMQException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* ----------------- Health and reconnection ---------------------------------------------------------------- */
+
+    private void checkHealth() {
+        for (PooledConnection connection : pool) {
+            if (!connection.healthy) {
+                continue;
+            }
+            final long start = System.nanoTime();
+            try {
+                connection.ops.currentNodeTime();
+                connection.lastHealthCheckMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                connection.lost(e);
+            }
+        }
+    }
+
+    private class PooledConnection {
+        private final int index;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong callNanos = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong reconnects = new AtomicLong();
+        private volatile CordaRPCConnection connection;
+        private volatile CordaRPCOps ops;
+        private volatile boolean healthy = false;
+        private volatile long lastHealthCheckMicros = -1;
+        private long backoffSeconds = 1;
+
+        private PooledConnection(int index) {
+            this.index = index;
+        }
+
+        /* --- on the first connect or a maintenance thread, only one of them runs per connection at a time --- */
+        private synchronized boolean connect() {
+            if (closed) {
+                return false;
+            }
+            try {
+                final CordaRPCConnection opened = new CordaRPCClient(rpcAddress).start(username, password);
+                connection = opened;
+                ops = opened.getProxy();
+                healthy = true;
+                backoffSeconds = 1;
+                return true;
+            } catch (RuntimeException e) {
+                logger.warn("RPC connection {} to {} failed, retrying in {}s", index, rpcAddress, backoffSeconds, e);
+                scheduleReconnect();
+                return false;
+            }
+        }
+
+        private synchronized void lost(Throwable cause) {
+            if (!healthy) {
+                return;
+            }
+            healthy = false;
+            logger.warn("RPC connection {} to {} lost, reconnecting", index, rpcAddress, cause);
+            close(false);
+            scheduleReconnect();
+        }
+
+        private void scheduleReconnect() {
+            if (closed) {
+                return;
+            }
+            maintenance.schedule(this::reconnect, backoffSeconds, TimeUnit.SECONDS);
+            backoffSeconds = Math.min(backoffSeconds * 2, maxBackoffSeconds);
+        }
+
+        private void reconnect() {
+            if (connect()) {
+                reconnects.incrementAndGet();
+                logger.info("RPC connection {} to {} reopened", index, rpcAddress);
+                for (Runnable listener : reconnectListeners) {
+                    try {
+                        listener.run();
+                    } catch (RuntimeException e) {
+                        logger.warn("RPC reconnect listener failed", e);
+                    }
+                }
+            }
+        }
+
+        private void close(boolean notifyServer) {
+            final CordaRPCConnection current = connection;
+            if (current == null) {
+                return;
+            }
+            try {
+                if (notifyServer) {
+                    current.notifyServerAndClose();
+                } else {
+                    current.forceClose();
+                }
+            } catch (RuntimeException e) {
+                logger.debug("Closing RPC connection {} failed", index, e);
+            }
+        }
+
+        private Map<String, Object> metrics() {
+            final long callCount = calls.get();
+            final Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("connection", index);
+            metrics.put("healthy", healthy);
+            metrics.put("inFlight", inFlight.get());
+            metrics.put("calls", callCount);
+            metrics.put("errors", errors.get());
+            metrics.put("reconnects", reconnects.get());
+            metrics.put("meanCallMillis", callCount == 0 ? 0.0 : TimeUnit.NANOSECONDS.toMicros(callNanos.get()) / 1000.0 / callCount);
+            metrics.put("lastHealthCheckMillis", lastHealthCheckMicros < 0 ? null : lastHealthCheckMicros / 1000.0);
+            return metrics;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,43 @@
+package com.bank.webserver;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+/**
+ * STOMP over WebSocket. Browsers connect to /ws and subscribe to /user/queue/cash-events, see CashEventStream.
+ */
+@Configuration
+@EnableWebSocketMessageBroker
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    // How long a single send to one browser may block before its session is closed.
+    @Value("${config.ws.sendTimeLimitMillis:10000}")
+    private int sendTimeLimitMillis;
+    // How many bytes Spring may queue for one browser before its session is closed.
+    @Value("${config.ws.sendBufferSizeLimit:524288}")
+    private int sendBufferSizeLimit;
+    // Comma separated origins whose pages may open the cash event stream. Same origin only when empty.
+    @Value("${config.ws.allowedOrigins:}")
+    private String[] allowedOrigins;
+
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+        registry.addEndpoint("/ws").setAllowedOrigins(allowedOrigins).withSockJS();
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry registry) {
+        registry.enableSimpleBroker("/queue");
+        registry.setApplicationDestinationPrefixes("/app");
+        registry.setUserDestinationPrefix("/user");
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMillis).setSendBufferSizeLimit(sendBufferSizeLimit);
+    }
+}
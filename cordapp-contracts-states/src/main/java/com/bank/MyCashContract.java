@@ -1,17 +1,19 @@
 package com.bank;
 
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Sets;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.CommandData;
 import net.corda.core.contracts.CommandWithParties;
 import net.corda.core.contracts.Contract;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.identity.AbstractParty;
 import net.corda.core.transactions.LedgerTransaction;
 
 
-import java.math.BigDecimal;
 import java.security.PublicKey;
+import java.util.Arrays;
 import java.util.Currency;
 import java.util.HashSet;
 import java.util.List;
@@ -57,64 +59,78 @@ public class MyCashContract implements Contract {
                     Processing of cash issuance
        ----------------------------------------------------------------------- */
     private void verifyIssuedCash(LedgerTransaction tx, Set<PublicKey> signers) {
-        requireThat(req -> {
-            req.using("No inputs should be consumed when issuing Cash.", tx.getInputStates().isEmpty());
-
-            //multiple cash states can be issued
-            int numOfOutputStates = tx.getOutputStates().size();
-            MyCashState cashOutputState = null;
-            for (int i = 0; i < numOfOutputStates; ++i) {
-                cashOutputState = (MyCashState) tx.getOutputStates().get(i);
-                req.using("A newly issued cash must have a positive amount.", cashOutputState.getAmount().getQuantity() > 0);
-                req.using("Only bank should sign cash issue transaction.", signers.contains(cashOutputState.getBank().getOwningKey()));
+        final List<TransactionState<ContractState>> outputs = tx.getOutputs();
+        boolean allPositive = true;
+        boolean bankSigned = true;
+        //multiple cash states can be issued
+        for (int i = 0; i < outputs.size(); ++i) {
+            final ContractState output = outputs.get(i).getData();
+            if (output instanceof MyCashState) {
+                final MyCashState cash = (MyCashState) output;
+                allPositive &= cash.getAmount().getQuantity() > 0;
+                bankSigned &= signers.contains(cash.getBank().getOwningKey());
             }
+        }
+
+        final boolean noInputs = tx.getInputs().isEmpty();
+        final boolean outputsPositive = allPositive;
+        final boolean outputsSignedByBank = bankSigned;
+        requireThat(req -> {
+            req.using("No inputs should be consumed when issuing Cash.", noInputs);
+            req.using("A newly issued cash must have a positive amount.", outputsPositive);
+            req.using("Only bank should sign cash issue transaction.", outputsSignedByBank);
             return null;
         });
     }
 
     /* -----------------------------------------------------------------------
                     Processing of transferring/moving cash
+       One pass over the inputs and one over the outputs: quantities are summed
+       as longs per bank and currency and every owner key is looked up in the
+       signers directly, so no Amount or key set is built per state. A transfer
+       moves cash between owners only, never to another bank or to none.
        ----------------------------------------------------------------------- */
     private void transferCash(LedgerTransaction tx, Set<PublicKey> signers) {
-
-        List<MyCashState> cashInputs = tx.inputsOfType(MyCashState.class);
-        List<MyCashState> cashOutputs = tx.outputsOfType(MyCashState.class);
-
-        requireThat(req -> {
-            req.using("A cash transfer transaction should consume at least one input state.", !tx.getInputStates().isEmpty());
-            req.using("A cash transfer transaction should create at least one output state.", !tx.getOutputStates().isEmpty());
-
-
-            Amount<Currency> sumOfInputCash  = net.corda.finance.Currencies.DOLLARS(0);//we are defaulting to USD
-            Amount<Currency> sumOfOutputCash = net.corda.finance.Currencies.DOLLARS(0);//we are defaulting to USD
-
-            Set<PublicKey> inputOwnerKeys = new HashSet<>();
-            Set<PublicKey> outputOwnerKeys = new HashSet<>();
-
-
-
-
-            for (int i = 0; i < cashInputs.size(); ++i) {
-                sumOfInputCash = sumOfInputCash.plus(cashInputs.get(i).getAmount());
-                inputOwnerKeys.add(cashInputs.get(i).getOwner().getOwningKey());
+        final List<StateAndRef<ContractState>> inputs = tx.getInputs();
+        final List<TransactionState<ContractState>> outputs = tx.getOutputs();
+
+        final BankTotals inputTotals = new BankTotals();
+        boolean inputOwnersSigned = true;
+        for (int i = 0; i < inputs.size(); ++i) {
+            final ContractState input = inputs.get(i).getState().getData();
+            if (input instanceof MyCashState) {
+                final MyCashState cash = (MyCashState) input;
+                inputTotals.add(cash.getBank(), cash.getAmount());
+                inputOwnersSigned &= signers.contains(cash.getOwner().getOwningKey());
             }
-            for (int i = 0; i < cashOutputs.size(); ++i) {
-                sumOfOutputCash = sumOfOutputCash.plus(cashOutputs.get(i).getAmount());
-                outputOwnerKeys.add(cashOutputs.get(i).getOwner().getOwningKey());
+        }
+
+        final BankTotals outputTotals = new BankTotals();
+        boolean outputOwnersSigned = true;
+        for (int i = 0; i < outputs.size(); ++i) {
+            final ContractState output = outputs.get(i).getData();
+            if (output instanceof MyCashState) {
+                final MyCashState cash = (MyCashState) output;
+                outputTotals.add(cash.getBank(), cash.getAmount());
+                outputOwnersSigned &= signers.contains(cash.getOwner().getOwningKey());
             }
+        }
 
+        final boolean oldOwnersSigned = inputOwnersSigned;
+        final boolean newOwnersSigned = outputOwnersSigned;
+        requireThat(req -> {
+            req.using("A cash transfer transaction should consume at least one input state.", !inputs.isEmpty());
+            req.using("A cash transfer transaction should create at least one output state.", !outputs.isEmpty());
 
-            req.using("In a cash transfer sum of inputs should be greater than 0", sumOfInputCash.toDecimal().intValue() > 0);
-            req.using("In a cash transfer sum of outputs should be greater than 0", sumOfOutputCash.toDecimal().intValue() > 0);
+            req.using("In a cash transfer sum of inputs should be greater than 0", inputTotals.allPositive());
+            req.using("In a cash transfer sum of outputs should be greater than 0", outputTotals.allPositive());
 
+            //per bank and currency, so dollars cannot be paid out as another currency or another bank's cash
             req.using("In a cash transfer transaction sum of cash inputs should be equal to sum of cash outputs",
-                    sumOfInputCash.compareTo(sumOfOutputCash) == 0);
+                    inputTotals.sameAs(outputTotals));
 
-
-            req.using("The old  owner must sign MyCashState transfer transaction",
-                    signers.containsAll(inputOwnerKeys));
-            req.using("The New  owner must sign MyCashState transfer transaction",
-                    signers.containsAll(outputOwnerKeys));
+            req.using("The old  owner must sign MyCashState transfer transaction", oldOwnersSigned);
+            req.using("The New  owner must sign MyCashState transfer transaction", newOwnersSigned);
 
             return null;
         });
@@ -125,33 +141,87 @@ public class MyCashContract implements Contract {
                 Processing of destroying cash
        ----------------------------------------------------------------------- */
     private void destroyCash(LedgerTransaction tx, Set<PublicKey> signers) {
+        final List<StateAndRef<ContractState>> inputs = tx.getInputs();
+
+        //every input needs its owner's and its bank's signature
+        boolean ownersAndBanksSigned = true;
+        for (int i = 0; i < inputs.size(); ++i) {
+            final ContractState input = inputs.get(i).getState().getData();
+            if (input instanceof MyCashState) {
+                final MyCashState cash = (MyCashState) input;
+                ownersAndBanksSigned &= signers.contains(cash.getOwner().getOwningKey());
+                ownersAndBanksSigned &= signers.contains(cash.getBank().getOwningKey());
+            }
+        }
 
-        List<MyCashState> cashInputs = tx.inputsOfType(MyCashState.class);
-        List<MyCashState> cashOutputs = tx.outputsOfType(MyCashState.class);
-
-        Set<PublicKey> inputOwnerKeys = new HashSet<>();
-        Set<PublicKey> bankKeys = new HashSet<>();
-
+        final boolean signed = ownersAndBanksSigned;
         requireThat(req -> {
             req.using("Destroy transaction should not create any outputs.",
-                    cashOutputs.isEmpty());
+                    tx.getOutputs().isEmpty());
+            req.using("The Owner of the cash and bank must sign  destroy transaction", signed);
             return null;
         });
 
-        for (int i = 0; i < cashInputs.size(); ++i) {
-            PublicKey inputOwner = cashInputs.get(i).getOwner().getOwningKey();
-            inputOwnerKeys.add(inputOwner);
+    }
 
-            if(cashInputs.get(i).getBank().getOwningKey() != null)
-                bankKeys.add(cashInputs.get(i).getBank().getOwningKey());
+    /* -----------------------------------------------------------------------
+            Quantities summed per bank and currency in parallel arrays.
+            Transactions almost always hold one bank and one currency, so a
+            linear scan beats a map and nothing is boxed.
+    ----------------------------------------------------------------------- */
+    private static final class BankTotals {
+        private AbstractParty[] banks = new AbstractParty[2];
+        private Currency[] currencies = new Currency[2];
+        private long[] quantities = new long[2];
+        private int size = 0;
+
+        private void add(AbstractParty bank, Amount<Currency> amount) {
+            final Currency currency = amount.getToken();
+            int i = indexOf(bank, currency);
+            if (i < 0) {
+                if (size == currencies.length) {
+                    banks = Arrays.copyOf(banks, size * 2);
+                    currencies = Arrays.copyOf(currencies, size * 2);
+                    quantities = Arrays.copyOf(quantities, size * 2);
+                }
+                i = size++;
+                banks[i] = bank;
+                currencies[i] = currency;
+            }
+            //throws ArithmeticException rather than wrapping around
+            quantities[i] = Math.addExact(quantities[i], amount.getQuantity());
+        }
+
+        private int indexOf(AbstractParty bank, Currency currency) {
+            for (int i = 0; i < size; ++i) {
+                if (currencies[i].equals(currency) && banks[i].equals(bank)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
 
-            requireThat(req -> {
-                req.using("The Owner of the cash and bank must sign  destroy transaction",
-                        signers.containsAll(ImmutableList.of(inputOwnerKeys, bankKeys)));
-                return null;
-            });
+        private boolean allPositive() {
+            for (int i = 0; i < size; ++i) {
+                if (quantities[i] <= 0) {
+                    return false;
+                }
+            }
+            return size > 0;
         }
 
+        private boolean sameAs(BankTotals other) {
+            if (size != other.size) {
+                return false;
+            }
+            for (int i = 0; i < size; ++i) {
+                final int j = other.indexOf(banks[i], currencies[i]);
+                if (j < 0 || other.quantities[j] != quantities[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 
 
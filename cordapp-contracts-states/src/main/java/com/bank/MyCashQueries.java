@@ -0,0 +1,84 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+
+import java.lang.reflect.Field;
+import java.util.Currency;
+
+/**
+ * Vault query criteria and sort orders on the indexed columns of MyCashSchemaV1.
+ *
+ * These are usable from flows as well as over RPC, all criteria match unconsumed states only.
+ */
+public final class MyCashQueries {
+    public static final Field OWNER_KEY_HASH = field("ownerKeyHash");
+    public static final Field OWNER_NAME = field("ownerName");
+    public static final Field BANK_NAME = field("bankName");
+    public static final Field CURRENCY = field("currency");
+    public static final Field QUANTITY = field("quantity");
+
+    public static final Sort BY_QUANTITY_ASCENDING = byQuantity(Sort.Direction.ASC);
+    public static final Sort BY_QUANTITY_DESCENDING = byQuantity(Sort.Direction.DESC);
+    /* --- every owner's states are contiguous, the state ref keeps the paging stable --- */
+    public static final Sort BY_OWNER_NAME = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Custom(MyCashSchemaV1.PersistentMyCash.class, "ownerName"), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private MyCashQueries() {
+    }
+
+    public static QueryCriteria ownedBy(AbstractParty owner) {
+        return custom(Builder.equal(OWNER_KEY_HASH, MyCashSchemaV1.ownerKeyHash(owner)));
+    }
+
+    public static QueryCriteria ownedByName(CordaX500Name owner) {
+        return custom(Builder.equal(OWNER_NAME, owner.toString()));
+    }
+
+    public static QueryCriteria inCurrency(Currency currency) {
+        return custom(Builder.equal(CURRENCY, currency.getCurrencyCode()));
+    }
+
+    public static QueryCriteria ownedByInCurrency(AbstractParty owner, Currency currency) {
+        return ownedBy(owner).and(inCurrency(currency));
+    }
+
+    public static QueryCriteria quantityAtLeast(long quantity) {
+        return custom(Builder.greaterThanOrEqual(QUANTITY, quantity));
+    }
+
+    public static QueryCriteria quantityBelow(long quantity) {
+        return custom(Builder.lessThan(QUANTITY, quantity));
+    }
+
+    /* --- aggregate: each result row is (sum of quantity, owner name, currency code), largest balance first --- */
+    public static QueryCriteria sumByOwnerAndCurrency() {
+        return custom(Builder.sum(QUANTITY, ImmutableList.of(OWNER_NAME, CURRENCY), Sort.Direction.DESC));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static QueryCriteria custom(CriteriaExpression expression) {
+        return new QueryCriteria.VaultCustomQueryCriteria(expression);
+    }
+
+    private static Sort byQuantity(Sort.Direction direction) {
+        return new Sort(ImmutableList.of(new Sort.SortColumn(
+                new SortAttribute.Custom(MyCashSchemaV1.PersistentMyCash.class, "quantity"), direction)));
+    }
+
+    private static Field field(String name) {
+        try {
+            return MyCashSchemaV1.PersistentMyCash.class.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("MyCashSchemaV1 has no column " + name, e);
+        }
+    }
+}
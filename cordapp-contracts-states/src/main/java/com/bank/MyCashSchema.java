@@ -0,0 +1,7 @@
+package com.bank;
+
+/**
+ * The family of schemas that MyCashState can be persisted with. Each version is a MappedSchema of this family.
+ */
+public class MyCashSchema {
+}
@@ -0,0 +1,100 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * First version of the MyCashState schema. Every unconsumed or consumed MyCashState gets one row, so vault queries on
+ * owner, bank, currency and amount run as indexed SQL instead of deserialising states.
+ */
+public class MyCashSchemaV1 extends MappedSchema {
+
+    public MyCashSchemaV1() {
+        super(MyCashSchema.class, 1, ImmutableList.of(PersistentMyCash.class));
+    }
+
+    /* --- the owner is stored as a hash of its key, so anonymous owners can be queried too --- */
+    public static String ownerKeyHash(AbstractParty owner) {
+        return SecureHash.sha256(owner.getOwningKey().getEncoded()).toString();
+    }
+
+    private static String nameOf(AbstractParty party) {
+        final CordaX500Name name = party.nameOrNull();
+        return name == null ? null : name.toString();
+    }
+
+    @Entity
+    @Table(name = "my_cash_states", indexes = {
+            @Index(name = "my_cash_owner_currency_quantity_idx", columnList = "owner_key_hash,currency,quantity"),
+            @Index(name = "my_cash_owner_name_idx", columnList = "owner_name"),
+            @Index(name = "my_cash_bank_name_idx", columnList = "bank_name"),
+            @Index(name = "my_cash_quantity_idx", columnList = "quantity"),
+            @Index(name = "my_cash_linear_id_idx", columnList = "linear_id")
+    })
+    public static class PersistentMyCash extends PersistentState {
+        @Column(name = "owner_key_hash", length = 130, nullable = false)
+        private final String ownerKeyHash;
+        @Column(name = "owner_name")
+        private final String ownerName;
+        @Column(name = "bank_name")
+        private final String bankName;
+        @Column(name = "currency", length = 3, nullable = false)
+        private final String currency;
+        @Column(name = "quantity", nullable = false)
+        private final long quantity;
+        @Column(name = "linear_id", length = 36, nullable = false)
+        private final String linearId;
+
+        public PersistentMyCash(MyCashState state) {
+            this.ownerKeyHash = ownerKeyHash(state.getOwner());
+            this.ownerName = nameOf(state.getOwner());
+            this.bankName = nameOf(state.getBank());
+            this.currency = state.getAmount().getToken().getCurrencyCode();
+            this.quantity = state.getAmount().getQuantity();
+            this.linearId = state.getLinearId().getId().toString();
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentMyCash() {
+            this.ownerKeyHash = null;
+            this.ownerName = null;
+            this.bankName = null;
+            this.currency = null;
+            this.quantity = 0;
+            this.linearId = null;
+        }
+
+        public String getOwnerKeyHash() {
+            return ownerKeyHash;
+        }
+
+        public String getOwnerName() {
+            return ownerName;
+        }
+
+        public String getBankName() {
+            return bankName;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public String getLinearId() {
+            return linearId;
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.bank;
 
 
+import com.google.common.collect.ImmutableList;
 import net.corda.core.contracts.*;
 import net.corda.core.crypto.NullKeys;
 import net.corda.core.identity.AbstractParty;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
+import net.corda.core.serialization.ConstructorForDeserialization;
 import org.jetbrains.annotations.NotNull;
 
 
@@ -14,7 +19,7 @@ import java.util.stream.Collectors;
 // *********
 // * State *
 // *********
-public class MyCashState implements LinearState {
+public class MyCashState implements LinearState, QueryableState {
 
     private final Amount<Currency> amount;
     private final AbstractParty bank;
@@ -24,10 +29,16 @@ public class MyCashState implements LinearState {
     /* --- Constructors  --- */
 
     public MyCashState(Amount<Currency> amount, AbstractParty bank, AbstractParty owner) {
+        this(amount, bank, owner, new UniqueIdentifier());
+    }
+
+    //used by the serialisation framework so that the linearId survives a round trip through the vault
+    @ConstructorForDeserialization
+    public MyCashState(Amount<Currency> amount, AbstractParty bank, AbstractParty owner, UniqueIdentifier linearId) {
         this.amount = amount;
         this.bank = bank;
         this.owner = owner;
-        this.linearId = new UniqueIdentifier();
+        this.linearId = linearId;
     }
 
     /*  --- Getters ---*/
@@ -68,10 +79,24 @@ public class MyCashState implements LinearState {
         return getParticipants().stream().map(AbstractParty::getOwningKey).collect(Collectors.toList());
     }
 
+    /* --- persisted to the indexed columns of MyCashSchemaV1 so that vault queries do not deserialise states ---*/
+    @Override
+    public PersistentState generateMappedObject(MappedSchema schema) {
+        if (schema instanceof MyCashSchemaV1) {
+            return new MyCashSchemaV1.PersistentMyCash(this);
+        }
+        throw new IllegalArgumentException("Unrecognised schema " + schema);
+    }
+
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new MyCashSchemaV1());
+    }
+
 
     @Override
     public String toString() {
-        return String.format("MyCashState(amount=%s, lender=%s, owner=%s, linearId=%s)", amount, bank, owner);
+        return String.format("MyCashState(amount=%s, lender=%s, owner=%s, linearId=%s)", amount, bank, owner, linearId);
     }
 
 
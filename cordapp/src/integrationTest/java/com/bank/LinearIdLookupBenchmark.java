@@ -0,0 +1,108 @@
+package com.bank;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static net.corda.finance.Currencies.DOLLARS;
+
+/**
+ * Measures the latency of a flow that looks up its input states by linearId, for a growing number of inputs.
+ *
+ * Run with: ./gradlew cordapp:integrationTest --tests com.bank.LinearIdLookupBenchmark
+ */
+public class LinearIdLookupBenchmark {
+    private static final int[] INPUT_COUNTS = {1, 10, 50, 100, 300};
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 20;
+
+    private MockNetwork network;
+    private StartedMockNode bank;
+
+    @Before
+    public void setup() {
+        network = new MockNetwork(ImmutableList.of("com.bank"));
+        bank = network.createPartyNode(new CordaX500Name("Bank", "London", "GB"));
+        network.runNetwork();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Test
+    public void lookupLatencyAgainstInputCount() throws Exception {
+        final UniqueIdentifier[] issuedIds = issueCash(INPUT_COUNTS[INPUT_COUNTS.length - 1]);
+
+        System.out.println(String.format("%8s %12s %12s %12s", "inputs", "median(ms)", "p90(ms)", "max(ms)"));
+        for (int inputCount : INPUT_COUNTS) {
+            final UniqueIdentifier[] ids = Arrays.copyOf(issuedIds, inputCount);
+            for (int i = 0; i < WARMUP_RUNS; ++i) {
+                runLookup(ids);
+            }
+
+            final long[] samples = new long[MEASURED_RUNS];
+            for (int i = 0; i < MEASURED_RUNS; ++i) {
+                final long start = System.nanoTime();
+                runLookup(ids);
+                samples[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(samples);
+            System.out.println(String.format("%8d %12.2f %12.2f %12.2f", inputCount,
+                    samples[MEASURED_RUNS / 2] / 1e6,
+                    samples[(MEASURED_RUNS * 9) / 10] / 1e6,
+                    samples[MEASURED_RUNS - 1] / 1e6));
+        }
+    }
+
+    private UniqueIdentifier[] issueCash(int count) throws Exception {
+        final UniqueIdentifier[] ids = new UniqueIdentifier[count];
+        for (int i = 0; i < count; ++i) {
+            final CordaFuture<SignedTransaction> future = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(1)));
+            network.runNetwork();
+            ids[i] = future.get().getTx().outputsOfType(MyCashState.class).get(0).getLinearId();
+        }
+        return ids;
+    }
+
+    private void runLookup(UniqueIdentifier[] ids) throws Exception {
+        final CordaFuture<SignedTransaction> future = bank.startFlow(new LookupFlow(ids));
+        network.runNetwork();
+        future.get();
+    }
+
+    /* --- a flow that only performs the input lookup that TransferMyCash and DestroyMyCash start with --- */
+    static class LookupFlow extends MyCashBaseFlow<SignedTransaction> {
+        private final UniqueIdentifier[] linearIds;
+
+        LookupFlow(UniqueIdentifier[] linearIds) {
+            this.linearIds = linearIds;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final List<StateAndRef<MyCashState>> states = getCashStateByLinearId(linearIds);
+            for (int i = 0; i < linearIds.length; ++i) {
+                if (!states.get(i).getState().getData().getLinearId().equals(linearIds[i])) {
+                    throw new FlowException(String.format("State %d was returned out of order.", i));
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.driver.DriverDSL;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.InProcess;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static net.corda.finance.Currencies.DOLLARS;
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertEquals;
+
+public class MultiNotaryIssuanceTest {
+    private final CordaX500Name bankName = new CordaX500Name("Bank", "London", "GB");
+
+    private final CordaX500Name ownerName = new CordaX500Name("OwnerA", "London", "GB");
+
+    private static void withTwoNotaries(Function<DriverDSL, Void> test) {
+        driver(new DriverParameters()
+                .withStartNodesInProcess(true)
+                .withExtraCordappPackagesToScan(ImmutableList.of("com.bank"))
+                .withNotarySpecs(ImmutableList.of(
+                        new NotarySpec(new CordaX500Name("Notary1", "London", "GB"), false, ImmutableList.of(), VerifierType.InMemory, null),
+                        new NotarySpec(new CordaX500Name("Notary2", "London", "GB"), false, ImmutableList.of(), VerifierType.InMemory, null))), test);
+    }
+
+    private static Set<Party> notariesOf(List<StateAndRef<MyCashState>> states) {
+        final Set<Party> notaries = new HashSet<>();
+        for (StateAndRef<MyCashState> state : states) {
+            notaries.add(state.getState().getNotary());
+        }
+        return notaries;
+    }
+
+    /* ---------With round robin selection, consecutive issuances land on every notary ----------------*/
+    @Test
+    public void issuanceIsSpreadOverAllNotaries() {
+        withTwoNotaries(dsl -> {
+            try {
+                final NodeHandle bank = dsl.startNode(new NodeParameters().withProvidedName(bankName)).get();
+                final CordaRPCOps rpc = bank.getRpc();
+                for (int i = 0; i < 4; ++i) {
+                    rpc.startFlowDynamic(MyCashFlows.IssueMyCashFlow.class, DOLLARS(10)).getReturnValue().get();
+                }
+
+                assertEquals(2, notariesOf(rpc.vaultQuery(MyCashState.class).getStates()).size());
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during test: ", e);
+            }
+            return null;
+        });
+    }
+
+    /* ---------A transfer no single notary can cover moves the minority inputs first -----------------*/
+    @Test
+    public void transferSpanningNotariesMovesInputsFirst() {
+        withTwoNotaries(dsl -> {
+            try {
+                final NodeHandle bank = dsl.startNode(new NodeParameters().withProvidedName(bankName)).get();
+                final NodeHandle owner = dsl.startNode(new NodeParameters().withProvidedName(ownerName)).get();
+                final CordaRPCOps rpc = bank.getRpc();
+                rpc.startFlowDynamic(MyCashFlows.IssueMyCashFlow.class, DOLLARS(10)).getReturnValue().get();
+                rpc.startFlowDynamic(MyCashFlows.IssueMyCashFlow.class, DOLLARS(10)).getReturnValue().get();
+                assertEquals(2, notariesOf(rpc.vaultQuery(MyCashState.class).getStates()).size());
+
+                final Party ownerParty = rpc.wellKnownPartyFromX500Name(ownerName);
+                final SignedTransaction tx = rpc.startFlowDynamic(MyCashFlows.TransferMyCash.class, ownerParty, DOLLARS(15))
+                        .getReturnValue().get();
+
+                //one of the two inputs was moved, and the spend found both on its own notary
+                assertEquals(1, ((InProcess) bank).getServices().cordaService(MyCashMetrics.class)
+                        .getRegistry().counter("selection.notary_changes").getCount());
+                assertEquals(2, tx.getTx().getInputs().size());
+                final List<StateAndRef<MyCashState>> spent = rpc.vaultQueryByCriteria(
+                        new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.CONSUMED, null, tx.getTx().getInputs()),
+                        MyCashState.class).getStates();
+                assertEquals(2, spent.size());
+                assertEquals(ImmutableSet.of(tx.getNotary()), notariesOf(spent));
+                assertEquals(1, owner.getRpc().vaultQuery(MyCashState.class).getStates().size());
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during test: ", e);
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,133 @@
+package com.bank;
+
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Arrays;
+
+/**
+ * Strategies used by {@link MyCashSelection} to pick which unconsumed MyCashStates pay for a target amount.
+ *
+ * Each strategy works on the candidate quantities only, in the order they were recorded in the vault (oldest first),
+ * and returns the indexes of the chosen candidates or null if the candidates cannot cover the target.
+ */
+@CordaSerializable
+public enum CashSelectionStrategy {
+
+    /* --- largest states first, so the transfer consumes as few inputs as possible ---------------------------------- */
+    FEWEST_INPUTS {
+        @Override
+        int[] choose(long[] quantities, int count, long target) {
+            return takeUntilCovered(byQuantityDescending(quantities, count), quantities, target);
+        }
+    },
+
+    /* --- the combination that leaves the least change behind for the current owner ----------------------------- */
+    SMALLEST_CHANGE {
+        @Override
+        int[] choose(long[] quantities, int count, long target) {
+            int smallestCovering = -1;
+            for (int i = 0; i < count; ++i) {
+                if (quantities[i] == target) {
+                    return new int[]{i};
+                }
+                if (quantities[i] > target && (smallestCovering < 0 || quantities[i] < quantities[smallestCovering])) {
+                    smallestCovering = i;
+                }
+            }
+
+            final int[] descending = byQuantityDescending(quantities, count);
+
+            //greedy subset that does not overshoot the target, wins outright if it is exact
+            final int[] subset = new int[count + 1];
+            final boolean[] used = new boolean[count];
+            int subsetSize = 0;
+            long total = 0;
+            for (int index : descending) {
+                if (total + quantities[index] <= target) {
+                    subset[subsetSize++] = index;
+                    used[index] = true;
+                    total += quantities[index];
+                    if (total == target) {
+                        return Arrays.copyOf(subset, subsetSize);
+                    }
+                }
+            }
+
+            //otherwise the cheapest of: one covering state, the subset topped up by the smallest state that covers
+            //the rest, or simply the largest states first
+            int[] best = smallestCovering < 0 ? null : new int[]{smallestCovering};
+            int topUp = -1;
+            for (int i = 0; i < count; ++i) {
+                if (!used[i] && quantities[i] >= target - total && (topUp < 0 || quantities[i] < quantities[topUp])) {
+                    topUp = i;
+                }
+            }
+            if (topUp >= 0) {
+                subset[subsetSize++] = topUp;
+                best = cheaper(best, Arrays.copyOf(subset, subsetSize), quantities);
+            }
+            return cheaper(best, takeUntilCovered(descending, quantities, target), quantities);
+        }
+    },
+
+    /* --- oldest states first, keeps the age of the owner's states down ----------------------------------------- */
+    OLDEST_FIRST {
+        @Override
+        int[] choose(long[] quantities, int count, long target) {
+            final int[] recordedOrder = new int[count];
+            for (int i = 0; i < count; ++i) {
+                recordedOrder[i] = i;
+            }
+            return takeUntilCovered(recordedOrder, quantities, target);
+        }
+    };
+
+    abstract int[] choose(long[] quantities, int count, long target);
+
+    /* --- helpers shared by the strategies ---------------------------------------------------------------------- */
+    private static int[] takeUntilCovered(int[] order, long[] quantities, long target) {
+        long total = 0;
+        for (int i = 0; i < order.length; ++i) {
+            total += quantities[order[i]];
+            if (total >= target) {
+                return Arrays.copyOf(order, i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int[] byQuantityDescending(long[] quantities, int count) {
+        final Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(quantities[b], quantities[a]));
+
+        final int[] order = new int[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    //less change wins, then fewer inputs
+    private static int[] cheaper(int[] first, int[] second, long[] quantities) {
+        if (first == null || second == null) {
+            return first == null ? second : first;
+        }
+        final long firstTotal = sum(first, quantities);
+        final long secondTotal = sum(second, quantities);
+        if (firstTotal != secondTotal) {
+            return firstTotal < secondTotal ? first : second;
+        }
+        return first.length <= second.length ? first : second;
+    }
+
+    private static long sum(int[] chosen, long[] quantities) {
+        long total = 0;
+        for (int index : chosen) {
+            total += quantities[index];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,104 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What a payee agrees to sign, read from system properties of the node:
+ * - com.bank.acceptor.maxInputs, most inputs of a transfer, default 500.
+ * - com.bank.acceptor.maxOutputs, most outputs of a transfer, default 500.
+ * - com.bank.acceptor.maxTxBytes, largest serialised transaction, default 4 MiB.
+ * - com.bank.acceptor.currencies, comma separated ISO codes that may be received, any currency when empty.
+ *
+ * A transfer must pay us something in a single currency, hold a single TransferCash command and spend none of our own
+ * cash: our key signs for every owner in a transfer, so our states as inputs would be ours to lose. Every rejection
+ * is counted in MyCashMetrics as acceptor.rejected.reason.
+ */
+class MyCashAcceptancePolicy {
+    static final String MAX_INPUTS_PROPERTY = "com.bank.acceptor.maxInputs";
+    static final String MAX_OUTPUTS_PROPERTY = "com.bank.acceptor.maxOutputs";
+    static final String MAX_TX_BYTES_PROPERTY = "com.bank.acceptor.maxTxBytes";
+    static final String CURRENCIES_PROPERTY = "com.bank.acceptor.currencies";
+
+    private final MyCashMetrics metrics;
+    private final int maxInputs;
+    private final int maxOutputs;
+    private final int maxTxBytes;
+    private final Set<String> currencies = new HashSet<>();
+
+    MyCashAcceptancePolicy(MyCashMetrics metrics) {
+        this.metrics = metrics;
+        this.maxInputs = Integer.getInteger(MAX_INPUTS_PROPERTY, 500);
+        this.maxOutputs = Integer.getInteger(MAX_OUTPUTS_PROPERTY, 500);
+        this.maxTxBytes = Integer.getInteger(MAX_TX_BYTES_PROPERTY, 4 * 1024 * 1024);
+        for (String code : System.getProperty(CURRENCIES_PROPERTY, "").split(",")) {
+            if (!code.trim().isEmpty()) {
+                currencies.add(code.trim().toUpperCase());
+            }
+        }
+    }
+
+    /* --- on the initiator's claim, before the transaction or any of its dependencies is received --- */
+    void checkSummary(MyCashTransferSummary summary) throws FlowException {
+        if (summary.getInputCount() > maxInputs) {
+            throw reject("too_many_inputs", String.format("%d inputs, at most %d are accepted.", summary.getInputCount(), maxInputs));
+        }
+        if (summary.getOutputCount() > maxOutputs) {
+            throw reject("too_many_outputs", String.format("%d outputs, at most %d are accepted.", summary.getOutputCount(), maxOutputs));
+        }
+        if (summary.getTxBytes() > maxTxBytes) {
+            throw reject("too_large", String.format("%d bytes, at most %d are accepted.", summary.getTxBytes(), maxTxBytes));
+        }
+        if (!currencies.isEmpty()) {
+            for (Currency currency : summary.getCurrencies()) {
+                if (!currencies.contains(currency.getCurrencyCode())) {
+                    throw reject("currency", String.format("%s is not accepted, only %s.", currency, currencies));
+                }
+            }
+        }
+        final Amount<Currency> paid = summary.getPaidToYou();
+        if (paid == null || paid.getQuantity() <= 0) {
+            throw reject("nothing_for_us", "The transfer pays us nothing.");
+        }
+    }
+
+    /* --- on the received transaction with its inputs resolved, the claim must describe it exactly --- */
+    void checkTransaction(SignedTransaction stx, LedgerTransaction ledgerTx, MyCashTransferSummary claimed, Party me)
+            throws FlowException {
+        if (ledgerTx.getCommands().size() != 1
+                || !(ledgerTx.getCommands().get(0).getValue() instanceof MyCashContract.Commands.TransferCash)) {
+            throw reject("not_a_transfer", "Only a single TransferCash command is accepted.");
+        }
+        for (StateAndRef<ContractState> input : ledgerTx.getInputs()) {
+            final ContractState state = input.getState().getData();
+            if (state instanceof MyCashState && me.equals(((MyCashState) state).getOwner())) {
+                throw reject("spends_our_cash", String.format("Input %s is our own cash.", input.getRef()));
+            }
+        }
+        final MyCashTransferSummary actual;
+        try {
+            actual = MyCashTransferSummary.of(stx, me);
+        } catch (IllegalArgumentException e) {
+            //Amount.plus refuses to add up our outputs in different currencies
+            throw reject("mixed_currencies", "The transfer pays us in more than one currency.");
+        }
+        if (!actual.equals(claimed)) {
+            throw reject("summary_mismatch", String.format("The transaction is %s but was announced as %s.", actual, claimed));
+        }
+        checkSummary(actual);
+    }
+
+    private FlowException reject(String reason, String message) {
+        metrics.rejected(reason);
+        return new FlowException("Transfer rejected: " + message);
+    }
+}
@@ -0,0 +1,34 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * The unconsumed MyCash total of one owner in one currency. The owner is null for anonymous owners.
+ */
+@CordaSerializable
+public class MyCashBalance {
+    private final CordaX500Name owner;
+    private final Amount<Currency> amount;
+
+    public MyCashBalance(CordaX500Name owner, Amount<Currency> amount) {
+        this.owner = owner;
+        this.amount = amount;
+    }
+
+    public CordaX500Name getOwner() {
+        return owner;
+    }
+
+    public Amount<Currency> getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashBalance(owner=%s, amount=%s)", owner, amount);
+    }
+}
@@ -1,21 +1,51 @@
 package com.bank;
 
 
+import co.paralleluniverse.fibers.Suspendable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.*;
 import net.corda.core.identity.AbstractParty;
 import net.corda.core.identity.Party;
 import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.PageSpecification;
 import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.transactions.WireTransaction;
+import net.corda.core.utilities.NonEmptySet;
 import net.corda.core.utilities.ProgressTracker;
 
+import java.security.PublicKey;
+import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-abstract class MyCashBaseFlow extends FlowLogic<SignedTransaction> {
+abstract class MyCashBaseFlow<T> extends FlowLogic<T> {
+
+    /* --- Vault paging set up -------------------------------------------------------- */
+    static final int PAGE_SIZE = QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+    static final Sort BY_LINEAR_ID = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.LinearStateAttribute.UUID), Sort.Direction.ASC)));
 
     /* --- Progress tracker set up -------------------------------------------------- */
     protected final ProgressTracker.Step GENERATING_TRANSACTION = new ProgressTracker.Step("Generating transaction based on new Cash.");
@@ -44,51 +74,384 @@ abstract class MyCashBaseFlow extends FlowLogic<SignedTransaction> {
             FINALISING_TRANSACTION
     );
 
-    Party getAvailableNotary() throws FlowException {
-        List<Party> notaries = getServiceHub().getNetworkMapCache().getNotaryIdentities();
-        if (notaries.isEmpty()) {
+    /* --- Step timing, the fields are checkpointed with the flow so a step may span a suspension ------------------- */
+    private String currentStepName = null;
+    private long stepStartedNanos = 0;
+    private long flowStartedNanos = 0;
+    //what selectAndLock soft locked for this flow, a subflow sharing our run id has its own
+    private final Set<StateRef> selected = new HashSet<>();
+
+    /* --- use instead of progressTracker.setCurrentStep, the time spent in the previous step goes to MyCashMetrics --- */
+    protected void advance(ProgressTracker.Step step) {
+        final long now = System.nanoTime();
+        if (currentStepName == null) {
+            flowStartedNanos = now;
+        } else {
+            record(currentStepName, now - stepStartedNanos);
+        }
+        currentStepName = stepName(step);
+        stepStartedNanos = now;
+        progressTracker.setCurrentStep(step);
+    }
+
+    /* --- closes the last step and times the whole flow, wrap the flow's return value with it --- */
+    protected <R> R finished(R result) {
+        if (currentStepName != null) {
+            final long now = System.nanoTime();
+            record(currentStepName, now - stepStartedNanos);
+            record("total", now - flowStartedNanos);
+            currentStepName = null;
+        }
+        return result;
+    }
+
+    private String stepName(ProgressTracker.Step step) {
+        if (step == GENERATING_TRANSACTION) {
+            return "generating";
+        } else if (step == VERIFYING_TRANSACTION) {
+            return "verifying";
+        } else if (step == SIGNING_TRANSACTION) {
+            return "signing";
+        } else if (step == GATHERING_SIGS) {
+            return "gathering_sigs";
+        } else if (step == FINALISING_TRANSACTION) {
+            return "finalising";
+        }
+        return step.getLabel();
+    }
+
+    private void record(String name, long nanos) {
+        // nanoTime is only comparable within one JVM, a flow restored from its checkpoint after a restart may go back
+        if (nanos < 0) {
+            return;
+        }
+        getServiceHub().cordaService(MyCashMetrics.class).timer(getClass(), name).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /* --- a flow's own checks, run on the LedgerTransaction that the contracts were verified on --- */
+    interface LedgerCheck {
+        void check(LedgerTransaction ledgerTx) throws FlowException;
+    }
+
+    static final LedgerCheck NO_CHECKS = ledgerTx -> {
+    };
+
+    /* --- SIGNING and VERIFYING in one: signs with our key only, then resolves and verifies the result once ------- */
+    SignedTransaction signAndVerify(TransactionBuilder builder, Collection<PublicKey> stillToSign, LedgerCheck check) throws FlowException {
+        advance(SIGNING_TRANSACTION);
+        final SignedTransaction signedTx = getServiceHub().signInitialTransaction(builder, getOurIdentity().getOwningKey());
+
+        advance(VERIFYING_TRANSACTION);
+        resolveAndVerify(signedTx, stillToSign, check);
+        return signedTx;
+    }
+
+    /* --- Resolves inputs and attachments into a LedgerTransaction once and runs the contracts and check on it.
+       Every signature except those of stillToSign and the notary's must already be there; they are checked before
+       any resolution. Resolution and contract time go to MyCashMetrics as resolve and contracts --- */
+    LedgerTransaction resolveAndVerify(SignedTransaction signedTx, Collection<PublicKey> stillToSign, LedgerCheck check) throws FlowException {
+        final long start = System.nanoTime();
+        final LedgerTransaction ledgerTx;
+        try {
+            signedTx.verifySignaturesExcept(notSignedBeforeFinality(signedTx, stillToSign));
+            ledgerTx = signedTx.toLedgerTransaction(getServiceHub(), false);
+        } catch (SignatureException e) {
+            throw new FlowException("Transaction " + signedTx.getId() + " is not properly signed: " + e.getMessage(), e);
+        }
+        final long resolved = System.nanoTime();
+
+        ledgerTx.verify();
+        check.check(ledgerTx);
+        record("resolve", resolved - start);
+        record("contracts", System.nanoTime() - resolved);
+        return ledgerTx;
+    }
+
+    /* --- stillToSign and, as in CollectSignaturesFlow, the notary's key, which signs only at finality and only
+       transactions with inputs or a time window --- */
+    private static Collection<PublicKey> notSignedBeforeFinality(SignedTransaction signedTx, Collection<PublicKey> stillToSign) {
+        final WireTransaction wireTx = signedTx.getTx();
+        if (wireTx.getNotary() == null || (wireTx.getInputs().isEmpty() && wireTx.getTimeWindow() == null)) {
+            return stillToSign;
+        }
+        final List<PublicKey> missing = new ArrayList<>(stillToSign);
+        missing.add(wireTx.getNotary().getOwningKey());
+        return missing;
+    }
+
+    /* --- tells every payee what it is about to be asked to sign, so it can say no before resolving anything --- */
+    @Suspendable
+    void announce(SignedTransaction signedTx, Collection<FlowSession> payeeSessions) {
+        for (FlowSession session : payeeSessions) {
+            session.send(MyCashTransferSummary.of(signedTx, session.getCounterparty()));
+        }
+    }
+
+    /* --- how much of currency the transaction's outputs give owner --- */
+    static Amount<Currency> paidTo(LedgerTransaction ledgerTx, AbstractParty owner, Currency currency) {
+        Amount<Currency> paid = new Amount<>(0, currency);
+        for (MyCashState output : ledgerTx.outputsOfType(MyCashState.class)) {
+            if (owner.equals(output.getOwner()) && currency.equals(output.getAmount().getToken())) {
+                paid = paid.plus(output.getAmount());
+            }
+        }
+        return paid;
+    }
+
+    /* --- MyCashSelection for this flow, the states picked stay soft locked to it until it ends --- */
+    List<StateAndRef<MyCashState>> selectAndLock(AbstractParty owner, Amount<Currency> target, CashSelectionStrategy strategy) throws FlowException {
+        return selected(new MyCashSelection(getServiceHub()).select(owner, target, strategy, getRunId().getUuid()));
+    }
+
+    /* --- the same, leaving out states a notary has already seen spent, see retryAfterConflict --- */
+    List<StateAndRef<MyCashState>> selectAndLock(AbstractParty owner, Amount<Currency> target, CashSelectionStrategy strategy,
+                                                 Set<StateRef> excluded) throws FlowException {
+        return selected(new MyCashSelection(getServiceHub()).select(owner, target, strategy, getRunId().getUuid(), excluded));
+    }
+
+    private List<StateAndRef<MyCashState>> selected(List<StateAndRef<MyCashState>> states) {
+        for (StateAndRef<MyCashState> state : states) {
+            selected.add(state.getRef());
+        }
+        return states;
+    }
+
+    /* --- After a FinalityFlow that failed with e: true when the notary found a double spend and MyCashRetryPolicy
+       allows another attempt. The states it named join excluded and the locks selectAndLock took for this flow go,
+       those of a parent flow sharing its run id stay; the caller selects again at once. Retries and give-ups are
+       counted in MyCashMetrics --- */
+    boolean retryAfterConflict(NotaryException e, int attempt, Set<StateRef> excluded) {
+        final Set<StateRef> conflicting = conflictingRefs(e);
+        if (conflicting == null) {
+            return false;
+        }
+        final MyCashMetrics metrics = getServiceHub().cordaService(MyCashMetrics.class);
+        final MyCashRetryPolicy policy = new MyCashRetryPolicy();
+        if (!policy.allowsAnotherAfter(attempt)) {
+            metrics.retried(getClass(), "gave_up");
+            return false;
+        }
+        metrics.retried(getClass(), "notary_conflict");
+        excluded.addAll(conflicting);
+        if (!selected.isEmpty()) {
+            getServiceHub().getVaultService().softLockRelease(getRunId().getUuid(), NonEmptySet.copyOf(selected));
+            selected.clear();
+        }
+        getLogger().info("Attempt {} lost {} to another transaction, selecting again", attempt, conflicting);
+        return true;
+    }
+
+    /* --- a conflict on inputs the caller named cannot be selected around, it is only counted --- */
+    void countConflictOnNamedInputs(NotaryException e) {
+        if (conflictingRefs(e) != null) {
+            getServiceHub().cordaService(MyCashMetrics.class).retried(getClass(), "named_inputs");
+        }
+    }
+
+    /* --- the inputs a notary conflict names, null when e is another notary error --- */
+    static Set<StateRef> conflictingRefs(NotaryException e) {
+        if (!(e.getError() instanceof NotaryError.Conflict)) {
+            return null;
+        }
+        try {
+            return new HashSet<>(((NotaryError.Conflict) e.getError()).getConflict().verified().getStateHistory().keySet());
+        } catch (SignatureException badSignature) {
+            //not something to select around
+            return null;
+        }
+    }
+
+    /* --- inputs the caller named itself, a flow already holding any of them fails here instead of at the notary --- */
+    List<StateAndRef<MyCashState>> lockInputs(List<StateAndRef<MyCashState>> inputs) throws FlowException {
+        new MyCashSelection(getServiceHub()).lock(inputs, getRunId().getUuid());
+        return inputs;
+    }
+
+    /* --- Moves the inputs that are not on the notary holding most of them onto it, one NotaryChangeFlow each.
+       MyCashSelection avoids this whenever one notary holds enough, so it is only the fallback --- */
+    @Suspendable
+    List<StateAndRef<MyCashState>> onOneNotary(List<StateAndRef<MyCashState>> inputs) throws FlowException {
+        final Map<Party, Integer> perNotary = new HashMap<>();
+        Party target = inputs.get(0).getState().getNotary();
+        for (StateAndRef<MyCashState> input : inputs) {
+            final Party notary = input.getState().getNotary();
+            if (perNotary.merge(notary, 1, Integer::sum) > perNotary.get(target)) {
+                target = notary;
+            }
+        }
+        return perNotary.size() == 1 ? inputs : onNotary(inputs, target);
+    }
+
+    /* --- Moves every input that is not on target onto it, one NotaryChangeFlow each --- */
+    @Suspendable
+    List<StateAndRef<MyCashState>> onNotary(List<StateAndRef<MyCashState>> inputs, Party target) throws FlowException {
+        final List<StateAndRef<MyCashState>> moved = new ArrayList<>(inputs.size());
+        int changes = 0;
+        for (StateAndRef<MyCashState> input : inputs) {
+            if (target.equals(input.getState().getNotary())) {
+                moved.add(input);
+            } else {
+                moved.add(subFlow(new NotaryChangeFlow<>(input, target, AbstractStateReplacementFlow.Instigator.Companion.tracker())));
+                ++changes;
+            }
+        }
+        if (changes > 0) {
+            //the replacements are new states, nothing has locked them yet
+            lockInputs(moved);
+            getServiceHub().cordaService(MyCashMetrics.class).notaryChanges(changes);
+            getLogger().info("Moved {} of {} inputs to {} before spending them together", changes, inputs.size(), target);
+        }
+        return moved;
+    }
+
+    /* --- the notary of new states for owner, spread over all notaries by NotarySelector --- */
+    Party getAvailableNotary(AbstractParty owner) throws FlowException {
+        final Party notary = getServiceHub().cordaService(NotarySelector.class).select(owner);
+        if (notary == null) {
             throw new FlowException("No available notary found.");
         }
-        return notaries.get(0);
+        return notary;
+    }
+
+    /* --- FINALISING in one: the FinalityFlow time also feeds the latency weighted notary selection --- */
+    @Suspendable
+    SignedTransaction finalise(SignedTransaction signedTx) throws FlowException {
+        return finalise(signedTx, ImmutableSet.of());
+    }
+
+    /* --- the same, also recording the transaction with extraRecipients that hold none of its states --- */
+    @Suspendable
+    SignedTransaction finalise(SignedTransaction signedTx, Set<Party> extraRecipients) throws FlowException {
+        advance(FINALISING_TRANSACTION);
+        final long start = System.nanoTime();
+        final SignedTransaction finalTx = subFlow(new FinalityFlow(signedTx, extraRecipients, FINALISING_TRANSACTION.childProgressTracker()));
+        getServiceHub().cordaService(NotarySelector.class).recordFinality(signedTx.getNotary(), System.nanoTime() - start);
+        return finalTx;
     }
 
     StateAndRef<MyCashState> getCashStateByLinearId(UniqueIdentifier linearId) throws FlowException {
-        QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(
+        return getCashStateByLinearId(new UniqueIdentifier[]{linearId}).get(0);
+    }
+
+    /* --- Looks up all the given linearIds with a single paged vault query and returns the states in input order ---*/
+    List<StateAndRef<MyCashState>> getCashStateByLinearId(UniqueIdentifier[] linearIds) throws FlowException {
+        final List<UniqueIdentifier> requestedIds = Arrays.asList(linearIds);
+        final QueryCriteria queryCriteria = new QueryCriteria.LinearStateQueryCriteria(
                 null,
-                ImmutableList.of(linearId),
+                requestedIds,
                 Vault.StateStatus.UNCONSUMED,
                 null);
 
-        List<StateAndRef<MyCashState>> states = getServiceHub().getVaultService().queryBy(MyCashState.class, queryCriteria).getStates();
-        if (states.size() != 1) {
-            throw new FlowException(String.format("MyCashState with id %s not found.", linearId));
+        final Map<UniqueIdentifier, StateAndRef<MyCashState>> statesById = new HashMap<>(linearIds.length * 2);
+        for (StateAndRef<MyCashState> state : queryAllPages(MyCashState.class, queryCriteria, BY_LINEAR_ID)) {
+            statesById.put(state.getState().getData().getLinearId(), state);
         }
-        return states.get(0);
-    }
 
-    List<StateAndRef<MyCashState>> getCashStateByLinearId(UniqueIdentifier[] linearId) throws FlowException {
+        final List<StateAndRef<MyCashState>> returnStates = new ArrayList<>(linearIds.length);
+        final Set<UniqueIdentifier> seenIds = new HashSet<>(linearIds.length * 2);
+        final List<UniqueIdentifier> missingIds = new ArrayList<>();
+        final List<UniqueIdentifier> duplicateIds = new ArrayList<>();
+        for (UniqueIdentifier linearId : linearIds) {
+            final StateAndRef<MyCashState> state = statesById.get(linearId);
+            if (state == null) {
+                missingIds.add(linearId);
+            } else if (!seenIds.add(linearId)) {
+                duplicateIds.add(linearId);
+            } else {
+                returnStates.add(state);
+            }
+        }
 
-        MyCashState[] inputMyCashState = new MyCashState[linearId.length];
-        List<StateAndRef<MyCashState>> queriedStates = null;
-        List<StateAndRef<MyCashState>> returnStates = new ArrayList<>();
+        if (!missingIds.isEmpty() || !duplicateIds.isEmpty()) {
+            throw new FlowException(describeUnusableIds(missingIds, duplicateIds));
+        }
+        return returnStates;
+    }
 
-        QueryCriteria queryCriteria = null;
-        for (int i = 0; i < linearId.length; ++i) {
-            queryCriteria = new QueryCriteria.LinearStateQueryCriteria(
+    /* --- only called on the failure path, splits the ids we could not use into consumed and unknown ones ---------- */
+    private String describeUnusableIds(List<UniqueIdentifier> missingIds, List<UniqueIdentifier> duplicateIds) {
+        final Set<UniqueIdentifier> consumedIds = new HashSet<>();
+        if (!missingIds.isEmpty()) {
+            final QueryCriteria consumedCriteria = new QueryCriteria.LinearStateQueryCriteria(
                     null,
-                    ImmutableList.of(linearId[i]),
-                    Vault.StateStatus.UNCONSUMED,
+                    missingIds,
+                    Vault.StateStatus.CONSUMED,
                     null);
-            queriedStates = getServiceHub().getVaultService().queryBy(MyCashState.class, queryCriteria).getStates();
-            if (queriedStates.size() != 1) {
-                throw new FlowException(String.format("MyCashState with id %s not found.", linearId));
+            for (StateAndRef<MyCashState> state : queryAllPages(MyCashState.class, consumedCriteria, BY_LINEAR_ID)) {
+                consumedIds.add(state.getState().getData().getLinearId());
+            }
+        }
+
+        final List<UniqueIdentifier> notFoundIds = new ArrayList<>();
+        for (UniqueIdentifier linearId : missingIds) {
+            if (!consumedIds.contains(linearId)) {
+                notFoundIds.add(linearId);
             }
-            returnStates.add(queriedStates.get(0));
+        }
 
+        final StringBuilder message = new StringBuilder("Some MyCashStates cannot be used as inputs.");
+        if (!notFoundIds.isEmpty()) {
+            message.append(String.format(" Not found: %s.", notFoundIds));
+        }
+        if (!consumedIds.isEmpty()) {
+            message.append(String.format(" Already consumed: %s.", consumedIds));
+        }
+        if (!duplicateIds.isEmpty()) {
+            message.append(String.format(" Listed more than once: %s.", duplicateIds));
         }
+        return message.toString();
+    }
 
+    /* --- Reads every page of a vault query, pages are sorted so that no state is skipped or read twice ------------ */
+    <S extends ContractState> List<StateAndRef<S>> queryAllPages(Class<S> contractStateType, QueryCriteria criteria, Sort sort) {
+        final VaultService vaultService = getServiceHub().getVaultService();
+        final List<StateAndRef<S>> states = new ArrayList<>();
 
-        return returnStates;
+        int pageNumber = QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+        Vault.Page<S> page;
+        do {
+            page = vaultService.queryBy(contractStateType, criteria, new PageSpecification(pageNumber++, PAGE_SIZE), sort);
+            states.addAll(page.getStates());
+        } while (!page.getStates().isEmpty() && states.size() < page.getTotalStatesAvailable());
+
+        return states;
+    }
+
+    /* --- what the inputs hold per bank, in the order the banks first appear. The contract lets no cash change
+       banks, so outputs are made per bank out of it, see take and addOutputs --- */
+    static Map<AbstractParty, Long> byBank(List<StateAndRef<MyCashState>> inputs) {
+        final Map<AbstractParty, Long> quantities = new LinkedHashMap<>();
+        for (StateAndRef<MyCashState> input : inputs) {
+            final MyCashState cash = input.getState().getData();
+            quantities.merge(cash.getBank(), cash.getAmount().getQuantity(), Long::sum);
+        }
+        return quantities;
+    }
+
+    /* --- takes quantity out of available bank by bank, returns how much was taken from each --- */
+    static Map<AbstractParty, Long> take(Map<AbstractParty, Long> available, long quantity) throws FlowException {
+        final Map<AbstractParty, Long> taken = new LinkedHashMap<>();
+        for (Map.Entry<AbstractParty, Long> entry : available.entrySet()) {
+            final long part = Math.min(quantity, entry.getValue());
+            if (part > 0) {
+                taken.put(entry.getKey(), part);
+                entry.setValue(entry.getValue() - part);
+                quantity -= part;
+            }
+        }
+        if (quantity > 0) {
+            throw new FlowException(String.format("The inputs are %d short of what they have to pay.", quantity));
+        }
+        return taken;
+    }
+
+    /* --- one output to owner for every bank with a positive quantity --- */
+    static void addOutputs(TransactionBuilder builder, Map<AbstractParty, Long> perBank, Currency currency, AbstractParty owner) {
+        for (Map.Entry<AbstractParty, Long> entry : perBank.entrySet()) {
+            if (entry.getValue() > 0) {
+                builder.addOutputState(new MyCashState(new Amount<>(entry.getValue(), currency), entry.getKey(), owner), MyCashContract.ID);
+            }
+        }
     }
 
     Party resolveIdentity(AbstractParty abstractParty) {
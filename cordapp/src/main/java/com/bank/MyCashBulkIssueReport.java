@@ -0,0 +1,88 @@
+package com.bank;
+
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+/**
+ * What BulkIssueMyCashFlow did: one entry per finalised transaction, with its throughput.
+ */
+@CordaSerializable
+public class MyCashBulkIssueReport {
+    private final List<Chunk> chunks;
+
+    public MyCashBulkIssueReport(List<Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    public int getStatesIssued() {
+        int statesIssued = 0;
+        for (Chunk chunk : chunks) {
+            statesIssued += chunk.getStatesIssued();
+        }
+        return statesIssued;
+    }
+
+    public long getElapsedMillis() {
+        long elapsedMillis = 0;
+        for (Chunk chunk : chunks) {
+            elapsedMillis += chunk.getElapsedMillis();
+        }
+        return elapsedMillis;
+    }
+
+    public double getStatesPerSecond() {
+        return Chunk.perSecond(getStatesIssued(), getElapsedMillis());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashBulkIssueReport(transactions=%d, states=%d, elapsedMillis=%d, statesPerSecond=%.1f)",
+                chunks.size(), getStatesIssued(), getElapsedMillis(), getStatesPerSecond());
+    }
+
+    /* --- one notarised issuance transaction ------------------------------------------------------------------- */
+    @CordaSerializable
+    public static class Chunk {
+        private final SecureHash txId;
+        private final int statesIssued;
+        private final long elapsedMillis;
+
+        public Chunk(SecureHash txId, int statesIssued, long elapsedMillis) {
+            this.txId = txId;
+            this.statesIssued = statesIssued;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public SecureHash getTxId() {
+            return txId;
+        }
+
+        public int getStatesIssued() {
+            return statesIssued;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getStatesPerSecond() {
+            return perSecond(statesIssued, elapsedMillis);
+        }
+
+        static double perSecond(int states, long elapsedMillis) {
+            return elapsedMillis <= 0 ? states * 1000.0 : states * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Chunk(txId=%s, states=%d, elapsedMillis=%d, statesPerSecond=%.1f)",
+                    txId, statesIssued, elapsedMillis, getStatesPerSecond());
+        }
+    }
+}
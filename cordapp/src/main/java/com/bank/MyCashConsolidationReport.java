@@ -0,0 +1,68 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * What ConsolidateMyCash did: how many of the owner's states it merged and how many the owner holds before and after.
+ * txId and mergedAmount are null when there was nothing to consolidate.
+ */
+@CordaSerializable
+public class MyCashConsolidationReport {
+    private final Currency currency;
+    private final long statesBefore;
+    private final int statesMerged;
+    private final Amount<Currency> mergedAmount;
+    private final SecureHash txId;
+
+    public MyCashConsolidationReport(Currency currency, long statesBefore, int statesMerged, Amount<Currency> mergedAmount, SecureHash txId) {
+        this.currency = currency;
+        this.statesBefore = statesBefore;
+        this.statesMerged = statesMerged;
+        this.mergedAmount = mergedAmount;
+        this.txId = txId;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public long getStatesBefore() {
+        return statesBefore;
+    }
+
+    public int getStatesMerged() {
+        return statesMerged;
+    }
+
+    public Amount<Currency> getMergedAmount() {
+        return mergedAmount;
+    }
+
+    public SecureHash getTxId() {
+        return txId;
+    }
+
+    public boolean isConsolidated() {
+        return txId != null;
+    }
+
+    /* --- the merged states are replaced by one --- */
+    public long getStatesAfter() {
+        return isConsolidated() ? statesBefore - statesMerged + 1 : statesBefore;
+    }
+
+    /* --- how much smaller the owner's state count got, 0.0 to 1.0 --- */
+    public double getFragmentationDrop() {
+        return statesBefore == 0 ? 0.0 : (double) (statesBefore - getStatesAfter()) / statesBefore;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashConsolidationReport(currency=%s, statesBefore=%d, statesAfter=%d, merged=%d, amount=%s, drop=%.1f%%, txId=%s)",
+                currency, statesBefore, getStatesAfter(), statesMerged, mergedAmount, getFragmentationDrop() * 100, txId);
+    }
+}
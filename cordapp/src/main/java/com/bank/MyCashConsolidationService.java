@@ -0,0 +1,120 @@
+package com.bank;
+
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts ConsolidateMyCash when the number of MyCashStates this node owns in a currency passes a threshold.
+ *
+ * The threshold and the number of states merged per transaction are read from the system properties
+ * com.bank.consolidation.threshold (default 500, 0 turns consolidation off) and com.bank.consolidation.maxInputs
+ * (default ConsolidateMyCash.DEFAULT_MAX_INPUTS).
+ *
+ * State counts are followed from the vault updates. A currency whose count is not known yet, e.g. after a restart,
+ * is checked by the flow itself, which reads the count and does nothing below the threshold.
+ */
+@CordaService
+public class MyCashConsolidationService extends SingletonSerializeAsToken {
+    private final static Logger logger = LoggerFactory.getLogger(MyCashConsolidationService.class);
+
+    public static final String THRESHOLD_PROPERTY = "com.bank.consolidation.threshold";
+    public static final String MAX_INPUTS_PROPERTY = "com.bank.consolidation.maxInputs";
+
+    private final AppServiceHub serviceHub;
+    private final long threshold;
+    private final int maxInputs;
+    // Flows are started off the vault update thread, one at a time.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "mycash-consolidation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Currency, Long> ownedStates = new HashMap<>();
+    private final Set<Currency> consolidating = new HashSet<>();
+
+    public MyCashConsolidationService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.threshold = Long.getLong(THRESHOLD_PROPERTY, 500);
+        this.maxInputs = Integer.getInteger(MAX_INPUTS_PROPERTY, MyCashFlows.ConsolidateMyCash.DEFAULT_MAX_INPUTS);
+        if (threshold > 0) {
+            serviceHub.getVaultService().getUpdates().subscribe(this::onUpdate);
+        }
+    }
+
+    private synchronized void onUpdate(Vault.Update<?> update) {
+        final Party me = serviceHub.getMyInfo().getLegalIdentities().get(0);
+        final Set<Currency> touched = new HashSet<>();
+        for (StateAndRef<?> consumed : update.getConsumed()) {
+            count(consumed, me, -1, touched);
+        }
+        for (StateAndRef<?> produced : update.getProduced()) {
+            count(produced, me, 1, touched);
+        }
+
+        for (Currency currency : touched) {
+            final Long states = ownedStates.get(currency);
+            if ((states == null || states >= threshold) && consolidating.add(currency)) {
+                executor.execute(() -> consolidate(currency));
+            }
+        }
+    }
+
+    private void count(StateAndRef<?> stateAndRef, Party me, int delta, Set<Currency> touched) {
+        if (!(stateAndRef.getState().getData() instanceof MyCashState)) {
+            return;
+        }
+        final MyCashState cash = (MyCashState) stateAndRef.getState().getData();
+        if (!me.equals(cash.getOwner())) {
+            return;
+        }
+        final Currency currency = cash.getAmount().getToken();
+        ownedStates.computeIfPresent(currency, (token, states) -> Math.max(0, states + delta));
+        touched.add(currency);
+    }
+
+    private void consolidate(Currency currency) {
+        Long statesAfter = null;
+        boolean again = false;
+        try {
+            final MyCashConsolidationReport report = serviceHub
+                    .startFlow(new MyCashFlows.ConsolidateMyCash(currency, maxInputs, threshold))
+                    .getReturnValue().get();
+            if (report.isConsolidated()) {
+                logger.info("Automatic {}", report);
+            }
+            statesAfter = report.getStatesAfter();
+            //one transaction merges at most maxInputs states, keep going while we are still over the threshold
+            again = report.isConsolidated() && statesAfter >= threshold;
+        } catch (Exception e) {
+            logger.warn("Automatic consolidation of {} failed", currency, e);
+        } finally {
+            synchronized (this) {
+                if (statesAfter != null) {
+                    ownedStates.put(currency, statesAfter);
+                } else {
+                    ownedStates.remove(currency);
+                }
+                if (again) {
+                    executor.execute(() -> consolidate(currency));
+                } else {
+                    consolidating.remove(currency);
+                }
+            }
+        }
+    }
+}
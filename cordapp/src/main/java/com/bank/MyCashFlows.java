@@ -5,26 +5,40 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import net.corda.core.contracts.Amount;
 import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TimeWindow;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.crypto.NullKeys;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.*;
 import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.QueryCriteria;
 import net.corda.core.transactions.LedgerTransaction;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.transactions.TransactionBuilder;
 import net.corda.core.utilities.ProgressTracker;
 
-import java.security.GeneralSecurityException;
 import java.security.PublicKey;
+import java.security.SignatureException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Currency;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class MyCashFlows {
     /* --------------------- IssueMyCash Flow  ------------------------------------------------------------------------- */
     @InitiatingFlow
     @StartableByRPC
-    public static class IssueMyCashFlow extends MyCashBaseFlow {
+    public static class IssueMyCashFlow extends MyCashBaseFlow<SignedTransaction> {
 
         private final Amount<Currency> issuedAmount;
 
@@ -46,55 +60,113 @@ public class MyCashFlows {
             // Step 1. GENERATING_TRANSACTION.
              final Party me = getOurIdentity(); //this is issuer's identity. We check it if it is banks identity in cash contract
 
-            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            advance(GENERATING_TRANSACTION);
             //Flow is initiated by the bank and owner is bank since it is cash issuance state.
             final MyCashState myCashState = new MyCashState(issuedAmount, me, me);
             final List<PublicKey> requiredSigners = myCashState.getParticipantKeys();
 
-            final TransactionBuilder utx = new TransactionBuilder(getAvailableNotary())//Obtain a reference to the notary we want to use.
+            final TransactionBuilder utx = new TransactionBuilder(getAvailableNotary(me))//Obtain a reference to the notary we want to use.
                     .addOutputState(myCashState, MyCashContract.ID)
                     .addCommand(new MyCashContract.Commands.VerifyIssuedCash(), requiredSigners);
 
 
-            // Step 2. SIGNING_TRANSACTION.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
-            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(utx, requiredSigners);
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            // Only the bank signs an issuance, so no signature may be missing.
+            final SignedTransaction signedTx = signAndVerify(utx, ImmutableList.of(), NO_CHECKS);
 
-            // Step 2. VERIFYING_TRANSACTION.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-            try {
+            // Step 4. GATHERING_SIGS.
+            advance(GATHERING_SIGS);
+
+            //nothing to do here as bank does not need to gather signatures from any other party to issue cash.
+
+
+            // Step 5. FINALISING_TRANSACTION.
+            return finished(finalise(signedTx));
+        }
+    }
 
-                // We can now verify the transaction to ensure that it satisfies
-                // the contracts of all the transaction's input and output states.
 
-                signedTx.verify(getServiceHub());
+    /* --------------------- BulkIssueMyCash Flow: many owners, a few transactions ------------------------------------- */
+    @InitiatingFlow
+    @StartableByRPC
+    public static class BulkIssueMyCashFlow extends MyCashBaseFlow<MyCashBulkIssueReport> {
 
+        public static final int DEFAULT_CHUNK_SIZE = 100;
 
-                // We'll often want to perform our own additional verification
-                // too. Just because a transaction is valid based on the contract
-                // rules and requires our signature doesn't mean we have to
-                // sign it! We need to make sure the transaction represents an
-                // agreement we actually want to enter into.
+        private final List<MyCashIssuance> issuances;
+        private final int chunkSize;
 
-                // To do this, we need to convert our ``SignedTransaction``
-                // into a ``LedgerTransaction``. This will use our ServiceHub
-                // to resolve the transaction's inputs and attachments into
-                // actual objects, rather than just references.
 
-                LedgerTransaction ledgerTx = signedTx.toLedgerTransaction(getServiceHub());
-            } catch (GeneralSecurityException e) {
-                throw new IllegalStateException("Some this went wrong in issuing cash" + VERIFYING_TRANSACTION);
+        /* --- Constructor -------------------------------------------------------------- */
+        public BulkIssueMyCashFlow(List<MyCashIssuance> issuances) {
+            this(issuances, DEFAULT_CHUNK_SIZE);
+        }
+
+        public BulkIssueMyCashFlow(List<MyCashIssuance> issuances, int chunkSize) {
+            this.issuances = issuances;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Every chunk of at most chunkSize issuances becomes one transaction, finalised with the owners in it.
+         */
+        @Suspendable
+        @Override
+        public MyCashBulkIssueReport call() throws FlowException {
+            if (issuances.isEmpty()) {
+                throw new FlowException("There is no cash to issue.");
+            }
+            if (chunkSize <= 0) {
+                throw new FlowException(String.format("Chunk size must be positive but was %d.", chunkSize));
             }
 
-            // Step 4. GATHERING_SIGS.
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            final Party me = getOurIdentity(); //the bank, the cash contract checks that it signs
+            final List<MyCashBulkIssueReport.Chunk> chunks = new ArrayList<>();
 
-            //nothing to do here as bank does not need to gather signatures from any other party to issue cash.
+            //an owner's cash stays on its own notary under OWNER_HASH, otherwise every chunk gets the next notary
+            final boolean byOwner = getServiceHub().cordaService(NotarySelector.class).getPolicy() == NotarySelector.Policy.OWNER_HASH;
+            final Map<Party, List<MyCashIssuance>> groups = new LinkedHashMap<>();
+            for (MyCashIssuance issuance : issuances) {
+                final Party groupNotary = byOwner ? getAvailableNotary(issuance.getOwner()) : null;
+                if (!groups.containsKey(groupNotary)) {
+                    groups.put(groupNotary, new ArrayList<>());
+                }
+                groups.get(groupNotary).add(issuance);
+            }
 
+            for (Map.Entry<Party, List<MyCashIssuance>> group : groups.entrySet()) {
+                final List<MyCashIssuance> grouped = group.getValue();
+                for (int from = 0; from < grouped.size(); from += chunkSize) {
+                    final List<MyCashIssuance> chunk = new ArrayList<>(grouped.subList(from, Math.min(from + chunkSize, grouped.size())));
+                    final Party notary = byOwner ? group.getKey() : getAvailableNotary(chunk.get(0).getOwner());
+                    final long chunkStart = System.nanoTime();
+
+                    // Step 1. GENERATING_TRANSACTION.
+                    advance(GENERATING_TRANSACTION);
+                    final TransactionBuilder utx = new TransactionBuilder(notary);
+                    for (MyCashIssuance issuance : chunk) {
+                        utx.addOutputState(new MyCashState(issuance.getAmount(), me, issuance.getOwner()), MyCashContract.ID);
+                    }
+                    utx.addCommand(new MyCashContract.Commands.VerifyIssuedCash(), me.getOwningKey());
+
+                    // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+                    final SignedTransaction signedTx = signAndVerify(utx, ImmutableList.of(), NO_CHECKS);
+
+                    // Step 4. GATHERING_SIGS.
+                    advance(GATHERING_SIGS);
+                    //nothing to do here as only the bank signs an issuance.
+
+                    // Step 5. FINALISING_TRANSACTION. The owners are participants, so finality sends them the transaction.
+                    final SignedTransaction finalTx = finalise(signedTx);
+
+                    final MyCashBulkIssueReport.Chunk chunkReport = new MyCashBulkIssueReport.Chunk(
+                            finalTx.getId(), chunk.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - chunkStart));
+                    getLogger().info("Bulk issuance {}", chunkReport);
+                    chunks.add(chunkReport);
+                }
+            }
 
-            // Step 5. FINALISING_TRANSACTION.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            return subFlow(new FinalityFlow(signedTx, FINALISING_TRANSACTION.childProgressTracker()));
+            return finished(new MyCashBulkIssueReport(chunks));
         }
     }
 
@@ -102,42 +174,75 @@ public class MyCashFlows {
     /* ---------------- TransferMyCash from one owner to another owner (essentially changing hands initiated by current owner only---- */
     @StartableByRPC
     @InitiatingFlow
-    public static class TransferMyCash extends MyCashBaseFlow {
+    public static class TransferMyCash extends MyCashBaseFlow<SignedTransaction> {
 
 
         private final UniqueIdentifier[] linearIds;
         private final Party newOwner;
         private final Amount<Currency> transferAmount;
+        private final CashSelectionStrategy selectionStrategy;
 
         public TransferMyCash(UniqueIdentifier ids[], Party newOwner, Amount<Currency> amount) {
             this.newOwner = newOwner;
             this.transferAmount = amount;
+            this.selectionStrategy = null;
             this.linearIds = new UniqueIdentifier[ids.length];
             for (int i = 0; i < ids.length; ++i) {
                 this.linearIds[i] = ids[i];
             }
         }
 
+        /* --- the inputs are picked from our vault by coin selection instead of being passed in --- */
+        public TransferMyCash(Party newOwner, Amount<Currency> amount) {
+            this(newOwner, amount, CashSelectionStrategy.FEWEST_INPUTS);
+        }
+
+        public TransferMyCash(Party newOwner, Amount<Currency> amount, CashSelectionStrategy selectionStrategy) {
+            this.newOwner = newOwner;
+            this.transferAmount = amount;
+            this.selectionStrategy = selectionStrategy;
+            this.linearIds = null;
+        }
+
         /**
-         * The flow logic is encapsulated within the call() method.
+         * The flow logic is encapsulated within the call() method. Inputs picked by selection that a notary finds
+         * already spent are dropped and selected again, see MyCashBaseFlow.retryAfterConflict.
          */
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final Set<StateRef> excluded = new HashSet<>();
+            for (int attempt = 1; ; ++attempt) {
+                try {
+                    return transfer(excluded);
+                } catch (NotaryException e) {
+                    if (linearIds != null) {
+                        countConflictOnNamedInputs(e);
+                        throw e;
+                    }
+                    if (!retryAfterConflict(e, attempt, excluded)) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction transfer(Set<StateRef> excluded) throws FlowException {
 
             /* --- Start  -------------------------------------------------- */
             // Step 1. GENERATING_TRANSACTION.
 
-            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            advance(GENERATING_TRANSACTION);
 
-            int numOfInputs = linearIds.length;
+            //selection keeps to one notary where it can, given linearIds may still be spread over several
+            final List<StateAndRef<MyCashState>> inputMyCashState = onOneNotary((linearIds != null)
+                    ? lockInputs(getCashStateByLinearId(linearIds))
+                    : selectAndLock(getOurIdentity(), transferAmount, selectionStrategy, excluded));
 
-            Amount<Currency> sumOfInputCash  = net.corda.finance.Currencies.DOLLARS(0);//we are defaulting to USD
+            Amount<Currency> sumOfInputCash = new Amount<>(0, transferAmount.getToken());
 
-            List<StateAndRef<MyCashState>> inputMyCashState = getCashStateByLinearId(linearIds);
-
-
-            for (int i = 0; i < numOfInputs; ++i) {
+            for (int i = 0; i < inputMyCashState.size(); ++i) {
                 //get cashState passed from the vault using linearId
 
                 sumOfInputCash =sumOfInputCash.plus(inputMyCashState.get(i).getState().getData().getAmount());
@@ -159,20 +264,28 @@ public class MyCashFlows {
                 and the current owners input states are consumed. no new output should belong to current owner
                 To:DO - need to find a better way!
                 */
-                transferAllCash(inputMyCashState);
+                return transferAllCash(inputMyCashState);
             } else if (sumOfInputCash.compareTo(transferAmount) > 0) {
                 //current owner will have left over cash which will be new output for him/her.
                 final Amount<Currency> amountLeftToOwner = sumOfInputCash.minus(transferAmount);
-                transferPartialCash(inputMyCashState, amountLeftToOwner);
+                return transferPartialCash(inputMyCashState, amountLeftToOwner);
             } else {
                 throw new IllegalStateException(" An unknown situation has occurred during transfer of cash. " + GENERATING_TRANSACTION);
             }
-            return null;
 
         }
 
+        /* ----------------- the new owner gets exactly the amount asked for, whichever way the inputs were split ------*/
+        private void checkNewOwnerIsPaid(LedgerTransaction ledgerTx) throws FlowException {
+            final Amount<Currency> paid = paidTo(ledgerTx, newOwner, transferAmount.getToken());
+            if (!paid.equals(transferAmount)) {
+                throw new FlowException(String.format("The new owner would receive %s instead of %s.", paid, transferAmount));
+            }
+        }
+
         /* ----------------- Method to transfer all cash from owner to new owner ------------------------------------*/
 
+        @Suspendable
         private SignedTransaction transferAllCash(List<StateAndRef<MyCashState>> inputMyCashState) throws FlowException {
             final TransactionBuilder builder = new TransactionBuilder(inputMyCashState.get(0).getState().getNotary());
             //both current and new owner to sign the outputs
@@ -183,90 +296,719 @@ public class MyCashFlows {
 
             MyCashState[] newMyCashState = new MyCashState[inputMyCashState.size()];
 
-            for (int i = 0; i < linearIds.length; ++i) {
+            for (int i = 0; i < inputMyCashState.size(); ++i) {
                 newMyCashState[i] = inputMyCashState.get(i).getState().getData().withNewOwner(newOwner);
                 builder.addInputState(inputMyCashState.get(i));
                 builder.addOutputState(newMyCashState[i], MyCashContract.ID);
             }
             builder.addCommand(new MyCashContract.Commands.TransferCash(), requiredSigners);
 
-            // Step 2. SIGNING_TRANSACTION.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
-            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(builder, requiredSigners);
-
-            // Step 3. VERIFYING_TRANSACTION.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-            try {
-                signedTx.verify(getServiceHub());
-                LedgerTransaction ledgerTx = signedTx.toLedgerTransaction(getServiceHub());
-            } catch (GeneralSecurityException e) {
-                throw new IllegalStateException("Some this went wrong in transferCash Flow." + VERIFYING_TRANSACTION);
-            }
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            //the new owner has not signed yet, its signature is the only one allowed to be missing
+            final SignedTransaction signedTx = signAndVerify(builder, ImmutableList.of(newOwner.getOwningKey()), this::checkNewOwnerIsPaid);
 
             // Step 4. GATHERING_SIGS.
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            advance(GATHERING_SIGS);
             //the new owner needs to accept the cash so we send it for the newOwner signing.
             FlowSession otherPartySession = initiateFlow(newOwner);
+            announce(signedTx, ImmutableList.of(otherPartySession));
             final SignedTransaction fullySignedTx = subFlow(
                     new CollectSignaturesFlow(signedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
 
             // Step 5. FINALISING_TRANSACTION.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            return subFlow(new FinalityFlow(fullySignedTx, FINALISING_TRANSACTION.childProgressTracker()));
+            return finished(finalise(fullySignedTx));
 
         }
 
         /* ----------------- Method to transfer Partial cash from owner to new owner ------------------------------------*/
+        @Suspendable
         private SignedTransaction transferPartialCash(List<StateAndRef<MyCashState>> inputMyCashState, Amount<Currency> leftOverAmount) throws FlowException {
             final TransactionBuilder builder = new TransactionBuilder(inputMyCashState.get(0).getState().getNotary());
 
-            //left over cash stays with the input owner, but we have to create a new output
-            MyCashState leftOverCash = new MyCashState(leftOverAmount, NullKeys.INSTANCE.getNULL_PARTY(), getOurIdentity());
+            //left over cash stays with the input owner, but we have to create new outputs. No cash changes banks,
+            //so the new owner and we get one output per bank of the inputs
+            final Map<AbstractParty, Long> available = byBank(inputMyCashState);
+            final Map<AbstractParty, Long> paid = take(available, transferAmount.getQuantity());
 
             //both current and new owner to sign the outputs
             final List<PublicKey> requiredSigners = new ImmutableList.Builder<PublicKey>()
                     .add(getOurIdentity().getOwningKey())
                     .add(newOwner.getOwningKey()).build();
 
-
-            MyCashState newMyCashState = new MyCashState(transferAmount, NullKeys.INSTANCE.getNULL_PARTY(), newOwner);
-
-            builder.addOutputState(leftOverCash, MyCashContract.ID);
-            builder.addOutputState(newMyCashState, MyCashContract.ID);
+            addOutputs(builder, available, leftOverAmount.getToken(), getOurIdentity());
+            addOutputs(builder, paid, transferAmount.getToken(), newOwner);
 
             //and now add all the input states from the existing owner
-            for (int i = 0; i < linearIds.length; ++i) {
+            for (int i = 0; i < inputMyCashState.size(); ++i) {
                 builder.addInputState(inputMyCashState.get(i));
             }
             builder.addCommand(new MyCashContract.Commands.TransferCash(), requiredSigners);
-            // Step 2. SIGNING_TRANSACTION.
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
-            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(builder, requiredSigners);
-
-            // Step 3. VERIFYING_TRANSACTION.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-            try {
-                signedTx.verify(getServiceHub());
-                LedgerTransaction ledgerTx = signedTx.toLedgerTransaction(getServiceHub());
-            } catch (GeneralSecurityException e) {
-                throw new IllegalStateException("Some thing went wrong in partial transferCash Flow." + VERIFYING_TRANSACTION);
-            }
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            //the new owner has not signed yet, its signature is the only one allowed to be missing
+            final SignedTransaction signedTx = signAndVerify(builder, ImmutableList.of(newOwner.getOwningKey()), this::checkNewOwnerIsPaid);
 
             // Step 4. GATHERING_SIGS.
-            progressTracker.setCurrentStep(GATHERING_SIGS);
+            advance(GATHERING_SIGS);
             //the new owner needs to accept the cash so we send it for the newOwner signing.
             FlowSession otherPartySession = initiateFlow(newOwner);
+            announce(signedTx, ImmutableList.of(otherPartySession));
             final SignedTransaction fullySignedTx = subFlow(
                     new CollectSignaturesFlow(signedTx, ImmutableSet.of(otherPartySession), CollectSignaturesFlow.Companion.tracker()));
 
             // Step 5. FINALISING_TRANSACTION.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            return subFlow(new FinalityFlow(fullySignedTx, FINALISING_TRANSACTION.childProgressTracker()));
+            return finished(finalise(fullySignedTx));
+
+
+        }
+
+
+    }
+
+    /* ---------------- MultiPayeeTransferMyCash: one set of inputs pays many new owners in one transaction ---------------- */
+    @StartableByRPC
+    @InitiatingFlow
+    public static class MultiPayeeTransferMyCash extends MyCashBaseFlow<SignedTransaction> {
+
+        private final List<MyCashPayment> payments;
+        private final CashSelectionStrategy selectionStrategy;
+
+        public MultiPayeeTransferMyCash(List<MyCashPayment> payments) {
+            this(payments, CashSelectionStrategy.FEWEST_INPUTS);
+        }
+
+        public MultiPayeeTransferMyCash(List<MyCashPayment> payments, CashSelectionStrategy selectionStrategy) {
+            this.payments = payments;
+            this.selectionStrategy = selectionStrategy;
+        }
+
+        /**
+         * The flow logic is encapsulated within the call() method. Inputs a notary finds already spent are dropped
+         * and selected again, see MyCashBaseFlow.retryAfterConflict.
+         */
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final Set<StateRef> excluded = new HashSet<>();
+            for (int attempt = 1; ; ++attempt) {
+                try {
+                    return pay(excluded);
+                } catch (NotaryException e) {
+                    if (!retryAfterConflict(e, attempt, excluded)) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        @Suspendable
+        private SignedTransaction pay(Set<StateRef> excluded) throws FlowException {
+
+            /* --- Start  -------------------------------------------------- */
+            // Step 1. GENERATING_TRANSACTION.
+            advance(GENERATING_TRANSACTION);
+
+            if (payments.isEmpty()) {
+                throw new FlowException("A multi-payee transfer needs at least one payment.");
+            }
+            final Party me = getOurIdentity();
+            final Currency currency = payments.get(0).getAmount().getToken();
+            Amount<Currency> totalToPay = new Amount<>(0, currency);
+            //payees in the order they were first listed, each one signs once however many payments it receives
+            final Set<Party> payees = new LinkedHashSet<>();
+            for (MyCashPayment payment : payments) {
+                if (!currency.equals(payment.getAmount().getToken())) {
+                    throw new FlowException(String.format("All payments must be in %s but found %s.", currency, payment));
+                }
+                if (payment.getAmount().getQuantity() <= 0) {
+                    throw new FlowException(String.format("Payment amounts must be positive but found %s.", payment));
+                }
+                if (me.equals(payment.getPayee())) {
+                    throw new FlowException("Cash cannot be paid to the current owner.");
+                }
+                totalToPay = totalToPay.plus(payment.getAmount());
+                payees.add(payment.getPayee());
+            }
+
+            final List<StateAndRef<MyCashState>> inputMyCashState =
+                    onOneNotary(selectAndLock(me, totalToPay, selectionStrategy, excluded));
+
+            final TransactionBuilder builder = new TransactionBuilder(inputMyCashState.get(0).getState().getNotary());
+            for (StateAndRef<MyCashState> input : inputMyCashState) {
+                builder.addInputState(input);
+            }
+
+            //no cash changes banks, a payment is split where one bank's cash runs out
+            final Map<AbstractParty, Long> available = byBank(inputMyCashState);
+            for (MyCashPayment payment : payments) {
+                addOutputs(builder, take(available, payment.getAmount().getQuantity()), currency, payment.getPayee());
+            }
+            //a single change output per bank stays with the current owner
+            addOutputs(builder, available, currency, me);
+
+            //the current owner and every new owner sign the outputs
+            final ImmutableList.Builder<PublicKey> signers = new ImmutableList.Builder<PublicKey>().add(me.getOwningKey());
+            for (Party payee : payees) {
+                signers.add(payee.getOwningKey());
+            }
+            final List<PublicKey> requiredSigners = signers.build();
+            builder.addCommand(new MyCashContract.Commands.TransferCash(), requiredSigners);
+
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            //the payees have not signed yet, theirs are the only signatures allowed to be missing
+            final SignedTransaction signedTx = signAndVerify(builder, requiredSigners.subList(1, requiredSigners.size()), ledgerTx -> {
+                for (Party payee : payees) {
+                    final Amount<Currency> owed = owedTo(payee, currency);
+                    final Amount<Currency> paid = paidTo(ledgerTx, payee, currency);
+                    if (!paid.equals(owed)) {
+                        throw new FlowException(String.format("%s would receive %s instead of %s.", payee, paid, owed));
+                    }
+                }
+            });
+
+            // Step 4. GATHERING_SIGS.
+            advance(GATHERING_SIGS);
+            //all the sessions are opened up front and the signatures are collected in one round
+            final List<FlowSession> payeeSessions = new ArrayList<>(payees.size());
+            for (Party payee : payees) {
+                payeeSessions.add(initiateFlow(payee));
+            }
+            announce(signedTx, payeeSessions);
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(signedTx, payeeSessions, GATHERING_SIGS.childProgressTracker()));
+
+            // Step 5. FINALISING_TRANSACTION.
+            beforeFinality(fullySignedTx);
+            return finished(finalise(fullySignedTx));
+        }
+
+        /* --- called with every transaction right before it goes to the notary, for a subclass to note it down --- */
+        void beforeFinality(SignedTransaction fullySignedTx) throws FlowException {
+        }
+
+        private Amount<Currency> owedTo(Party payee, Currency currency) {
+            Amount<Currency> owed = new Amount<>(0, currency);
+            for (MyCashPayment payment : payments) {
+                if (payee.equals(payment.getPayee())) {
+                    owed = owed.plus(payment.getAmount());
+                }
+            }
+            return owed;
+        }
+    }
+
+    /* ---------------- RecordMyCashObligation: the payer records what it owes, so that it may be netted later ------------ */
+    @StartableByRPC
+    public static class RecordMyCashObligation extends FlowLogic<MyCashObligation> {
+
+        private final Party payee;
+        private final Amount<Currency> amount;
+
+        public RecordMyCashObligation(Party payee, Amount<Currency> amount) {
+            this.payee = payee;
+            this.amount = amount;
+        }
+
+        /**
+         * Returns the obligation to hand to NetSettleMyCash. We sign a settlement of it once, and only as recorded.
+         */
+        @Suspendable
+        @Override
+        public MyCashObligation call() throws FlowException {
+            if (amount.getQuantity() <= 0) {
+                throw new FlowException(String.format("An obligation must be positive but was %s.", amount));
+            }
+            if (getOurIdentity().equals(payee)) {
+                throw new FlowException("A party cannot owe itself.");
+            }
+            final MyCashObligation obligation = new MyCashObligation(UUID.randomUUID(), getOurIdentity(), payee, amount);
+            new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions())
+                    .insert(obligation.getId(), payee.getName(), amount);
+            return obligation;
+        }
+    }
+
+    /* ---------------- NetSettleMyCash: a window of obligations settled by their net movements in one transaction ------- */
+    @StartableByRPC
+    @InitiatingFlow
+    public static class NetSettleMyCash extends MyCashBaseFlow<MyCashNettingReport> {
+
+        //how long the settlement may take to be notarised, the parties reserve their obligations for that long
+        public static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+        private final List<MyCashObligation> obligations;
+
+        public NetSettleMyCash(List<MyCashObligation> obligations) {
+            this.obligations = obligations;
+        }
+
+        /**
+         * Every net payer contributes inputs covering what it owes net, every net payee receives one output of what it
+         * is owed net and each payer keeps its change, so the window costs one notarisation however many obligations it
+         * holds. Every party that owes anything, even when its obligations cancel out, signs only for obligations it
+         * recorded with RecordMyCashObligation, and each of them is netted once. The settlement can only be notarised
+         * within WINDOW_MILLIS, so obligations whose settlement never was can be netted again afterwards, see
+         * MyCashObligationStore.
+         */
+        @Suspendable
+        @Override
+        public MyCashNettingReport call() throws FlowException {
+
+            /* --- Start  -------------------------------------------------- */
+            // Step 1. GENERATING_TRANSACTION.
+            advance(GENERATING_TRANSACTION);
+
+            final MyCashNetting netting = MyCashNetting.of(obligations);
+            final Currency currency = netting.getCurrency();
+            final List<Party> payers = netting.getPayers();
+            final List<Party> payees = netting.getPayees();
+            if (payers.isEmpty()) {
+                return finished(report(netting, 0, null));
+            }
+
+            //our own inputs, if we pay, decide the notary, the other payers move theirs onto it
+            final Party me = getOurIdentity();
+            final List<MyCashObligation> owedByUs = netting.owedBy(me);
+            new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions()).checkOpen(owedByUs);
+            final List<StateAndRef<MyCashState>> inputs = new ArrayList<>();
+            final Party notary;
+            if (netting.positionOf(me) < 0) {
+                inputs.addAll(onOneNotary(
+                        selectAndLock(me, new Amount<>(-netting.positionOf(me), currency), CashSelectionStrategy.FEWEST_INPUTS)));
+                notary = inputs.get(0).getState().getNotary();
+            } else {
+                notary = getAvailableNotary(me);
+            }
+
+            //everyone but us with a net position or an obligation gets the window and signs, the payers send their
+            //inputs first
+            final MyCashNettingProposal proposal = new MyCashNettingProposal(obligations, notary);
+            final Set<Party> participants = new LinkedHashSet<>(payers);
+            participants.addAll(payees);
+            participants.addAll(netting.getObligors());
+            final List<FlowSession> sessions = new ArrayList<>(participants.size());
+            for (Party party : participants) {
+                if (me.equals(party)) {
+                    continue;
+                }
+                final FlowSession session = initiateFlow(party);
+                session.send(proposal);
+                if (netting.positionOf(party) < 0) {
+                    inputs.addAll(receiveInputs(session, netting, notary));
+                }
+                sessions.add(session);
+            }
+
+            final Instant settleBy = Instant.now().plusMillis(WINDOW_MILLIS);
+            final TransactionBuilder builder = new TransactionBuilder(notary).setTimeWindow(TimeWindow.untilOnly(settleBy));
+            final Map<AbstractParty, List<StateAndRef<MyCashState>>> contributed = new LinkedHashMap<>();
+            for (StateAndRef<MyCashState> input : inputs) {
+                builder.addInputState(input);
+                contributed.computeIfAbsent(input.getState().getData().getOwner(), owner -> new ArrayList<>()).add(input);
+            }
+
+            //no cash changes banks: each payer keeps its change in its own banks' cash, what it pays goes to the pool
+            //the payees are paid from
+            final Map<AbstractParty, Long> pool = new LinkedHashMap<>();
+            for (Party payer : payers) {
+                final Map<AbstractParty, Long> own = byBank(contributed.getOrDefault(payer, ImmutableList.of()));
+                long change = 0;
+                for (long quantity : own.values()) {
+                    change += quantity;
+                }
+                change += netting.positionOf(payer);
+                if (change > 0) {
+                    addOutputs(builder, take(own, change), currency, payer);
+                }
+                for (Map.Entry<AbstractParty, Long> paid : own.entrySet()) {
+                    pool.merge(paid.getKey(), paid.getValue(), Long::sum);
+                }
+            }
+            for (Party payee : payees) {
+                addOutputs(builder, take(pool, netting.positionOf(payee)), currency, payee);
+            }
+
+            //we sign as the coordinator even when we are not a participant, every participant signs as an owner
+            final Set<PublicKey> signers = new LinkedHashSet<>();
+            signers.add(me.getOwningKey());
+            for (Party party : participants) {
+                signers.add(party.getOwningKey());
+            }
+            builder.addCommand(new MyCashContract.Commands.TransferCash(), new ArrayList<>(signers));
+            final List<PublicKey> stillToSign = new ArrayList<>(signers);
+            stillToSign.remove(me.getOwningKey());
+
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            final SignedTransaction signedTx = signAndVerify(builder, stillToSign, ledgerTx -> {
+                for (Party party : participants) {
+                    netting.checkSettles(ledgerTx, party);
+                }
+            });
+            //a jdbc session of its own, the one above was taken before the inputs were received
+            new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions())
+                    .reserve(owedByUs, signedTx.getId(), settleBy.toEpochMilli());
+
+            // Step 4. GATHERING_SIGS.
+            advance(GATHERING_SIGS);
+            final SignedTransaction fullySignedTx = subFlow(
+                    new CollectSignaturesFlow(signedTx, sessions, GATHERING_SIGS.childProgressTracker()));
+
+            // Step 5. FINALISING_TRANSACTION. Parties whose obligations cancel out hold no state of it but record it
+            // too, that is what nets their obligations
+            final Set<Party> recipients = new LinkedHashSet<>(participants);
+            recipients.remove(me);
+            final SignedTransaction finalTx = finalise(fullySignedTx, recipients);
+            new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions())
+                    .net(owedByUs, finalTx.getId());
+            return finished(report(netting, participants.size(), finalTx));
+        }
+
+        /* --- a payer's inputs must be its own, in the netted currency, on the notary and enough for what it owes --- */
+        @Suspendable
+        private List<StateAndRef<MyCashState>> receiveInputs(FlowSession session, MyCashNetting netting, Party notary) throws FlowException {
+            final Party payer = session.getCounterparty();
+            final List<StateAndRef<MyCashState>> received = subFlow(new ReceiveStateAndRefFlow<MyCashState>(session));
+            long total = 0;
+            for (StateAndRef<MyCashState> input : received) {
+                final MyCashState cash = input.getState().getData();
+                if (!payer.equals(cash.getOwner()) || !netting.getCurrency().equals(cash.getAmount().getToken())
+                        || !notary.equals(input.getState().getNotary())) {
+                    throw new FlowException(String.format("%s sent an input it cannot settle with: %s.", payer, input));
+                }
+                total += cash.getAmount().getQuantity();
+            }
+            if (total < -netting.positionOf(payer)) {
+                throw new FlowException(String.format("%s sent %s but owes %s net.", payer,
+                        new Amount<>(total, netting.getCurrency()), new Amount<>(-netting.positionOf(payer), netting.getCurrency())));
+            }
+            return received;
+        }
+
+        private MyCashNettingReport report(MyCashNetting netting, int participants, SignedTransaction finalTx) {
+            final MyCashNettingReport report = new MyCashNettingReport(netting.getCurrency(), netting.getObligationCount(),
+                    participants, netting.getGrossAmount(), netting.getNetAmount(), finalTx == null ? null : finalTx.getId());
+            getServiceHub().cordaService(MyCashMetrics.class).netted(report.getObligations(), report.getNetTransactions());
+            getLogger().info("Netting {}", report);
+            return report;
+        }
+    }
+
+    /* ---------------- QueueMyCashTransfer: a transfer for MyCashSettlementQueue to settle with the next flush ----------- */
+    @StartableByRPC
+    @StartableByService
+    public static class QueueMyCashTransfer extends FlowLogic<UUID> {
+
+        private final UUID id;
+        private final Party payee;
+        private final Amount<Currency> amount;
+
+        public QueueMyCashTransfer(Party payee, Amount<Currency> amount) {
+            this(UUID.randomUUID(), payee, amount);
+        }
+
+        public QueueMyCashTransfer(UUID id, Party payee, Amount<Currency> amount) {
+            this.id = id;
+            this.payee = payee;
+            this.amount = amount;
+        }
+
+        /**
+         * Returns the id to ask QueuedMyCashTransferStatus about, or to wait on with MyCashQueuedTransferFeed. Nothing
+         * is checked against the vault yet, a transfer we cannot pay fails with its batch.
+         */
+        @Suspendable
+        @Override
+        public UUID call() throws FlowException {
+            if (amount.getQuantity() <= 0) {
+                throw new FlowException(String.format("A queued transfer must be positive but was %s.", amount));
+            }
+            if (getOurIdentity().equals(payee)) {
+                throw new FlowException("Cash cannot be paid to the current owner.");
+            }
+            new MyCashSettlementStore(getServiceHub().jdbcSession()).insert(id, payee.getName(), amount);
+            getServiceHub().cordaService(MyCashSettlementQueue.class).queued(id);
+            return id;
+        }
+    }
+
+    /* ---------------- SettleMyCashQueue: the oldest queued transfers paid with one transaction per currency ------------- */
+    @StartableByRPC
+    @StartableByService
+    public static class SettleMyCashQueue extends FlowLogic<List<MyCashQueuedTransfer>> {
+
+        public static final int DEFAULT_MAX_INTENTS = 100;
+        public static final long DEFAULT_STALE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+        private final int maxIntents;
+        private final long staleMillis;
+
+        public SettleMyCashQueue() {
+            this(DEFAULT_MAX_INTENTS);
+        }
+
+        public SettleMyCashQueue(int maxIntents) {
+            this(maxIntents, DEFAULT_STALE_MILLIS);
+        }
+
+        public SettleMyCashQueue(int maxIntents, long staleMillis) {
+            this.maxIntents = maxIntents;
+            this.staleMillis = staleMillis;
+        }
+
+        /**
+         * Every transfer of a batch settles or fails together, a failed batch is not retried. A batch whose transaction
+         * was signed but neither notarised nor refused by the notary is UNKNOWN rather than FAILED, it may still have
+         * paid. Transfers another flush claimed more than staleMillis ago without recording an outcome are recovered
+         * first, that flush having ended unexpectedly, see MyCashSettlementStore.recoverStale. None of them is queued
+         * again.
+         */
+        @Suspendable
+        @Override
+        public List<MyCashQueuedTransfer> call() throws FlowException {
+            final MyCashSettlementStore store = new MyCashSettlementStore(getServiceHub().jdbcSession());
+            final List<MyCashQueuedTransfer> stale = store.recoverStale(System.currentTimeMillis() - staleMillis,
+                    getServiceHub().getValidatedTransactions());
+            if (!stale.isEmpty()) {
+                getLogger().warn("Queued transfers {} were left unsettled by an earlier flush", stale);
+            }
+            final List<MyCashQueuedTransfer> claimed = store.claimPending(maxIntents);
+
+            final Map<Currency, List<MyCashQueuedTransfer>> byCurrency = new LinkedHashMap<>();
+            for (MyCashQueuedTransfer transfer : claimed) {
+                byCurrency.computeIfAbsent(transfer.getAmount().getToken(), currency -> new ArrayList<>()).add(transfer);
+            }
+
+            final List<MyCashQueuedTransfer> outcomes = new ArrayList<>(stale.size() + claimed.size());
+            outcomes.addAll(stale);
+            for (List<MyCashQueuedTransfer> batch : byCurrency.values()) {
+                final List<MyCashQueuedTransfer> settled = settle(batch);
+                //the store's connection belongs to the transaction that was open before settle suspended
+                new MyCashSettlementStore(getServiceHub().jdbcSession()).finish(settled);
+                outcomes.addAll(settled);
+            }
+            getServiceHub().cordaService(MyCashSettlementQueue.class).completed(outcomes);
+            return outcomes;
+        }
+
+        @Suspendable
+        private List<MyCashQueuedTransfer> settle(List<MyCashQueuedTransfer> batch) {
+            final List<MyCashQueuedTransfer> settled = new ArrayList<>(batch.size());
+            final List<MyCashPayment> payments = new ArrayList<>(batch.size());
+            final List<UUID> ids = new ArrayList<>(batch.size());
+            final SettleBatch settleBatch = new SettleBatch(payments, ids);
+            try {
+                for (MyCashQueuedTransfer transfer : batch) {
+                    final Party payee = getServiceHub().getIdentityService().wellKnownPartyFromX500Name(transfer.getPayee());
+                    if (payee == null) {
+                        throw new FlowException(String.format("Payee %s of queued transfer %s is not known.", transfer.getPayee(), transfer.getId()));
+                    }
+                    payments.add(new MyCashPayment(payee, transfer.getAmount()));
+                    ids.add(transfer.getId());
+                }
+                final SignedTransaction tx = subFlow(settleBatch);
+                for (MyCashQueuedTransfer transfer : batch) {
+                    settled.add(transfer.settled(tx.getId()));
+                }
+                getServiceHub().cordaService(MyCashMetrics.class).settled(batch.size());
+            } catch (FlowException | RuntimeException e) {
+                //whatever failed the batch, its transfers get an outcome and the flow goes on with the next batch,
+                //which may want the states this one had locked
+                getServiceHub().getVaultService().softLockRelease(getRunId().getUuid(), null);
+                getLogger().warn("Queued transfers {} failed", batch, e);
+                //a transaction the notary did not refuse may have been notarised before finality failed
+                final SecureHash signed = settleBatch.getSigned();
+                for (MyCashQueuedTransfer transfer : batch) {
+                    if (signed == null || e instanceof NotaryException) {
+                        settled.add(transfer.failed(e.getMessage()));
+                    } else if (getServiceHub().getValidatedTransactions().getTransaction(signed) != null) {
+                        settled.add(transfer.settled(signed));
+                    } else {
+                        settled.add(transfer.unknown(signed, MyCashSettlementStore.unknownOutcome(signed)));
+                    }
+                }
+            }
+            return settled;
+        }
+    }
+
+    /* --- MultiPayeeTransferMyCash for a batch of queued transfers, whose rows learn the transaction's id before the
+       notary does, so that a flush ending unexpectedly leaves them something to recover from --- */
+    static class SettleBatch extends MultiPayeeTransferMyCash {
+
+        private final List<UUID> ids;
+        private SecureHash signed;
+
+        SettleBatch(List<MyCashPayment> payments, List<UUID> ids) {
+            super(payments);
+            this.ids = ids;
+        }
+
+        @Override
+        void beforeFinality(SignedTransaction fullySignedTx) throws FlowException {
+            new MyCashSettlementStore(getServiceHub().jdbcSession()).settlingWith(ids, fullySignedTx.getId());
+            signed = fullySignedTx.getId();
+        }
+
+        /* --- the last transaction sent to the notary, null before any was --- */
+        SecureHash getSigned() {
+            return signed;
+        }
+    }
+
+    /* --------------------- QueuedMyCashTransferStatus: where a queued transfer is, from the settlement queue ------------ */
+    @StartableByRPC
+    public static class QueuedMyCashTransferStatus extends FlowLogic<MyCashQueuedTransfer> {
+
+        private final UUID id;
+
+        public QueuedMyCashTransferStatus(UUID id) {
+            this.id = id;
+        }
+
+        @Suspendable
+        @Override
+        public MyCashQueuedTransfer call() throws FlowException {
+            final MyCashQueuedTransfer transfer = new MyCashSettlementStore(getServiceHub().jdbcSession()).find(id);
+            if (transfer == null) {
+                throw new FlowException(String.format("No transfer was queued with id %s.", id));
+            }
+            return transfer;
+        }
+    }
+
+    /* ---------------- ConsolidateMyCash: merge our smallest states into one, in a transfer to ourselves ----------------- */
+    @StartableByRPC
+    @StartableByService
+    @InitiatingFlow
+    public static class ConsolidateMyCash extends MyCashBaseFlow<MyCashConsolidationReport> {
+
+        public static final int DEFAULT_MAX_INPUTS = 200;
+
+        private final Currency currency;
+        private final int maxInputs;
+        private final long threshold;
+
+        /* --- Constructor: consolidate whenever we hold at least two states -------------------------------------- */
+        public ConsolidateMyCash(Currency currency) {
+            this(currency, DEFAULT_MAX_INPUTS);
+        }
+
+        public ConsolidateMyCash(Currency currency, int maxInputs) {
+            this(currency, maxInputs, 2);
+        }
+
+        /* --- Constructor: do nothing unless we hold at least threshold states ------------------------------------ */
+        public ConsolidateMyCash(Currency currency, int maxInputs, long threshold) {
+            this.currency = currency;
+            this.maxInputs = maxInputs;
+            this.threshold = threshold;
+        }
+
+        @Suspendable
+        @Override
+        public MyCashConsolidationReport call() throws FlowException {
+            if (maxInputs < 2) {
+                throw new FlowException(String.format("Consolidation needs at least two inputs but maxInputs was %d.", maxInputs));
+            }
+
+            /* --- Start  -------------------------------------------------- */
+            // Step 1. GENERATING_TRANSACTION.
+            advance(GENERATING_TRANSACTION);
+            final Party me = getOurIdentity();
+
+            // All our states in this currency that no other flow is about to spend, from the index rather than the vault.
+            final MyCashIndex.Spendable owned = new MyCashSelection(getServiceHub()).unlocked(me, currency);
+            final long statesBefore = owned.states.size();
+            if (statesBefore < Math.max(2, threshold)) {
+                return finished(new MyCashConsolidationReport(currency, statesBefore, 0, null, null));
+            }
+
+            //smallest first; a transaction has a single notary, states held by another notary wait for a later consolidation
+            final List<Integer> smallestFirst = new ArrayList<>(owned.states.size());
+            for (int i = 0; i < owned.states.size(); ++i) {
+                smallestFirst.add(i);
+            }
+            smallestFirst.sort((a, b) -> Long.compare(owned.quantities[a], owned.quantities[b]));
+            final Party notary = owned.states.get(smallestFirst.get(0)).getState().getNotary();
+            final List<StateAndRef<MyCashState>> inputs = new ArrayList<>(Math.min(maxInputs, owned.states.size()));
+            for (int i = 0; i < smallestFirst.size() && inputs.size() < maxInputs; ++i) {
+                final StateAndRef<MyCashState> state = owned.states.get(smallestFirst.get(i));
+                if (notary.equals(state.getState().getNotary())) {
+                    inputs.add(state);
+                }
+            }
+            if (inputs.size() < 2) {
+                return finished(new MyCashConsolidationReport(currency, statesBefore, 0, null, null));
+            }
+            lockInputs(inputs);
+
+            final TransactionBuilder builder = new TransactionBuilder(notary);
+            Amount<Currency> mergedAmount = new Amount<>(0, currency);
+            for (StateAndRef<MyCashState> input : inputs) {
+                builder.addInputState(input);
+                mergedAmount = mergedAmount.plus(input.getState().getData().getAmount());
+            }
+            //no cash changes banks, so the merged cash is one output per bank
+            addOutputs(builder, byBank(inputs), currency, me);
+            //we are the old and the new owner, so ours is the only signature needed
+            builder.addCommand(new MyCashContract.Commands.TransferCash(), me.getOwningKey());
+
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            final SignedTransaction signedTx = signAndVerify(builder, ImmutableList.of(), NO_CHECKS);
+
+            // Step 4. GATHERING_SIGS.
+            advance(GATHERING_SIGS);
+            //nothing to do here as nobody else owns any of the states.
+
+            // Step 5. FINALISING_TRANSACTION.
+            final SignedTransaction finalTx = finalise(signedTx);
 
+            final MyCashConsolidationReport report = new MyCashConsolidationReport(
+                    currency, statesBefore, inputs.size(), mergedAmount, finalTx.getId());
+            getLogger().info("Consolidation {}", report);
+            return finished(report);
+        }
+    }
 
+    /* --------------------- MyCashBalanceFlow: unconsumed totals per owner and currency, summed by the vault -------------- */
+    //Only our own vault is summed. The owner is a state's only participant, so a node holds its own cash and not
+    //that of the owners it issued to or paid.
+    @StartableByRPC
+    public static class MyCashBalanceFlow extends FlowLogic<List<MyCashBalance>> {
+        private static final int COLUMNS_PER_ROW = 3;
+
+        private final Party owner;
+
+        /* --- Constructor: every owner in our vault -------------------------------------------------------------- */
+        public MyCashBalanceFlow() {
+            this(null);
         }
 
+        /* --- Constructor: a single owner -------------------------------------------------------------- */
+        public MyCashBalanceFlow(Party owner) {
+            this.owner = owner;
+        }
 
+        @Suspendable
+        @Override
+        public List<MyCashBalance> call() throws FlowException {
+            QueryCriteria criteria = MyCashQueries.sumByOwnerAndCurrency();
+            if (owner != null) {
+                criteria = criteria.and(MyCashQueries.ownedBy(owner));
+            }
+
+            // The states list of an aggregate query is empty, the rows come back flattened in otherResults.
+            final List<Object> rows = getServiceHub().getVaultService().queryBy(MyCashState.class, criteria).getOtherResults();
+            final List<MyCashBalance> balances = new ArrayList<>(rows.size() / COLUMNS_PER_ROW);
+            for (int i = 0; i + COLUMNS_PER_ROW <= rows.size(); i += COLUMNS_PER_ROW) {
+                final long quantity = ((Number) rows.get(i)).longValue();
+                final String ownerName = (String) rows.get(i + 1);
+                final Currency currency = Currency.getInstance((String) rows.get(i + 2));
+                balances.add(new MyCashBalance(
+                        ownerName == null ? null : CordaX500Name.parse(ownerName),
+                        new Amount<>(quantity, currency)));
+            }
+            return balances;
+        }
     }
 
     /* --------------------- NewCashOwnerAcceptor Flow ------------------------------------------------------------------------- */
@@ -282,14 +1024,30 @@ public class MyCashFlows {
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
+            final MyCashAcceptancePolicy policy = new MyCashAcceptancePolicy(getServiceHub().cordaService(MyCashMetrics.class));
+
+            //the announced summary is checked before the transaction and its dependencies are even received
+            final MyCashTransferSummary summary = otherPartyFlow.receive(MyCashTransferSummary.class).unwrap(claimed -> {
+                policy.checkSummary(claimed);
+                return claimed;
+            });
+
             class SignTxFlow extends SignTransactionFlow {
                 private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
                     super(otherPartyFlow, progressTracker);
                 }
 
                 @Override
-                protected void checkTransaction(SignedTransaction stx) {
-                    //new user is glad to accept cash
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    //the summary was only a claim, the transaction we sign must match it. The dependencies are
+                    //resolved by now, only the signatures still being collected are missing
+                    final LedgerTransaction ledgerTx;
+                    try {
+                        ledgerTx = stx.toLedgerTransaction(getServiceHub(), false);
+                    } catch (SignatureException e) {
+                        throw new FlowException("Transaction " + stx.getId() + " cannot be resolved: " + e.getMessage(), e);
+                    }
+                    policy.checkTransaction(stx, ledgerTx, summary, getOurIdentity());
                 }
             }
 
@@ -297,23 +1055,107 @@ public class MyCashFlows {
         }
     }
 
+    /* --------------------- MultiPayeeCashAcceptor: a payee of MultiPayeeTransferMyCash accepts its cash the same way -- */
+    @InitiatedBy(MultiPayeeTransferMyCash.class)
+    public static class MultiPayeeCashAcceptor extends NewCashOwnerAcceptor {
+
+        public MultiPayeeCashAcceptor(FlowSession otherPartyFlow) {
+            super(otherPartyFlow);
+        }
+    }
+
+
+    /* --------------------- NettingAcceptor: a party of NetSettleMyCash settles obligations it recorded, net, only ------ */
+    @InitiatedBy(NetSettleMyCash.class)
+    public static class NettingAcceptor extends MyCashBaseFlow<SignedTransaction> {
+
+        //the longest time window of a settlement we sign, our obligations are reserved for that long
+        public static final long MAX_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+        private final FlowSession otherPartyFlow;
+
+        public NettingAcceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final MyCashNettingProposal proposal = otherPartyFlow.receive(MyCashNettingProposal.class).unwrap(received -> {
+                if (received.getNotary() == null) {
+                    throw new FlowException("The netting proposal names no notary.");
+                }
+                return received;
+            });
+            final MyCashNetting netting = MyCashNetting.of(proposal.getObligations());
+            final Party me = getOurIdentity();
+
+            //we only pay for what we recorded ourselves, before anything is selected or sent
+            final List<MyCashObligation> owed = netting.owedBy(me);
+            new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions()).checkOpen(owed);
+
+            //a net payer hands over inputs covering what it owes, already on the settlement's notary
+            final long position = netting.positionOf(me);
+            if (position < 0) {
+                final List<StateAndRef<MyCashState>> inputs = onNotary(
+                        selectAndLock(me, new Amount<>(-position, netting.getCurrency()), CashSelectionStrategy.FEWEST_INPUTS),
+                        proposal.getNotary());
+                subFlow(new SendStateAndRefFlow(otherPartyFlow, inputs));
+            }
+
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    //the dependencies are resolved by now, only the signatures still being collected are missing
+                    try {
+                        netting.checkSettles(stx.toLedgerTransaction(getServiceHub(), false), me);
+                    } catch (SignatureException e) {
+                        throw new FlowException("Transaction " + stx.getId() + " cannot be resolved: " + e.getMessage(), e);
+                    }
+                    //once signed, the settlement may be notarised until its window ends, our obligations are
+                    //reserved for it until then
+                    final TimeWindow window = stx.getTx().getTimeWindow();
+                    if (window == null || window.getUntilTime() == null
+                            || window.getUntilTime().isAfter(Instant.now().plusMillis(MAX_WINDOW_MILLIS))) {
+                        throw new FlowException(String.format("A settlement must be notarised within %d ms.", MAX_WINDOW_MILLIS));
+                    }
+                    new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions())
+                            .reserve(owed, stx.getId(), window.getUntilTime().toEpochMilli());
+                }
+            }
+
+            //our obligations are netted once we record the settlement, a settlement that is never finalised leaves
+            //them reserved until its window ends
+            final SignedTransaction signedTx = subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+            final SignedTransaction finalTx = waitForLedgerCommit(signedTx.getId());
+            new MyCashObligationStore(getServiceHub().jdbcSession(), getServiceHub().getValidatedTransactions())
+                    .net(owed, finalTx.getId());
+            return finalTx;
+        }
+    }
 
     /* --------------------- DestroyCash to Bank--------------------------------------------- */
     @StartableByRPC
     @InitiatingFlow
-    public static class DestroyMyCash extends MyCashBaseFlow {
+    public static class DestroyMyCash extends MyCashBaseFlow<SignedTransaction> {
 
 
         private final UniqueIdentifier[] linearIds;
+        private final Amount<Currency> amount;
 
 
         public DestroyMyCash(UniqueIdentifier[] linearIds, Amount<Currency> amount) {
             this.linearIds = linearIds;
-
+            this.amount = amount;
         }
 
         /**
-         * The flow logic is encapsulated within the call() method.
+         * The flow logic is encapsulated within the call() method. The states named must add up to exactly amount,
+         * so that a caller cannot destroy more than it meant to.
          */
         @Suspendable
         @Override
@@ -322,9 +1164,9 @@ public class MyCashFlows {
             /* --- Start  -------------------------------------------------- */
             // Step 1. GENERATING_TRANSACTION.
 
-            progressTracker.setCurrentStep(GENERATING_TRANSACTION);
+            advance(GENERATING_TRANSACTION);
             //get cashState passed from the vault using linearId
-            List<StateAndRef<MyCashState>> inputMyCashState = getCashStateByLinearId(linearIds);
+            List<StateAndRef<MyCashState>> inputMyCashState = lockInputs(getCashStateByLinearId(linearIds));
 
             for (int i = 0; i < inputMyCashState.size(); ++i) {
                 //this flow can only be initiated by the current owner of cash
@@ -334,43 +1176,102 @@ public class MyCashFlows {
                     throw new IllegalStateException("Cash transfer can only be initiated by the current cash owner");
                 }
             }
+            //the linearIds may name cash on several notaries, a transaction has only one
+            inputMyCashState = onOneNotary(inputMyCashState);
+
+            Amount<Currency> sumOfInputCash = new Amount<>(0, amount.getToken());
+            for (StateAndRef<MyCashState> input : inputMyCashState) {
+                final Amount<Currency> inputCash = input.getState().getData().getAmount();
+                if (!amount.getToken().equals(inputCash.getToken())) {
+                    throw new FlowException(String.format("%s is not in %s.", input.getRef(), amount.getToken()));
+                }
+                sumOfInputCash = sumOfInputCash.plus(inputCash);
+            }
+            if (!sumOfInputCash.equals(amount)) {
+                throw new FlowException(String.format("The states named add up to %s, not the %s to destroy.", sumOfInputCash, amount));
+            }
 
-            // Step 2. VERIFYING_TRANSACTION.
-
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-            //no bank or other signers needs except for notary
             final TransactionBuilder builder = new TransactionBuilder(inputMyCashState.get(0).getState().getNotary());
-
-            //and now add all the input states from the existing owner
-            for (int i = 0; i < linearIds.length; ++i) {
-                builder.addInputState(inputMyCashState.get(i));
+            //the owner and the bank of every input sign together
+            final Set<PublicKey> signers = new LinkedHashSet<>();
+            signers.add(getOurIdentity().getOwningKey());
+            final Set<Party> banks = new LinkedHashSet<>();
+            for (StateAndRef<MyCashState> input : inputMyCashState) {
+                builder.addInputState(input);
+                final AbstractParty bank = input.getState().getData().getBank();
+                if (NullKeys.INSTANCE.getNULL_PARTY().equals(bank)) {
+                    throw new FlowException(String.format("%s has no bank to countersign its destruction.", input.getRef()));
+                }
+                signers.add(bank.getOwningKey());
+                final Party bankParty = resolveIdentity(bank);
+                if (!getOurIdentity().equals(bankParty)) {
+                    banks.add(bankParty);
+                }
             }
-            builder.addCommand(new MyCashContract.Commands.DestroyCash(),
-                    ImmutableList.of(getOurIdentity().getOwningKey(), inputMyCashState.get(0).getState().getData().getBank().getOwningKey())); //add both owner and bank keys
-
-            progressTracker.setCurrentStep(SIGNING_TRANSACTION);
-            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(builder, ImmutableList.of(getOurIdentity().getOwningKey()));
+            builder.addCommand(new MyCashContract.Commands.DestroyCash(), ImmutableList.copyOf(signers));
 
-            // Step 3. VERIFYING_TRANSACTION.
-            progressTracker.setCurrentStep(VERIFYING_TRANSACTION);
-            try {
-                signedTx.verify(getServiceHub());
-                LedgerTransaction ledgerTx = signedTx.toLedgerTransaction(getServiceHub());
-            } catch (GeneralSecurityException e) {
-                throw new IllegalStateException("Something went wrong in destroyCash Flow." + VERIFYING_TRANSACTION);
+            // Step 2. SIGNING_TRANSACTION and Step 3. VERIFYING_TRANSACTION.
+            final List<PublicKey> bankKeys = new ArrayList<>(banks.size());
+            for (Party bank : banks) {
+                bankKeys.add(bank.getOwningKey());
             }
+            final SignedTransaction signedTx = signAndVerify(builder, bankKeys, NO_CHECKS);
 
             // Step 4. GATHERING_SIGS.
-            progressTracker.setCurrentStep(GATHERING_SIGS);
-            //nothing to do here
+            advance(GATHERING_SIGS);
+            //the banks of the destroyed cash countersign, nothing to do when we are the bank
+            SignedTransaction fullySignedTx = signedTx;
+            if (!banks.isEmpty()) {
+                final List<FlowSession> bankSessions = new ArrayList<>(banks.size());
+                for (Party bank : banks) {
+                    bankSessions.add(initiateFlow(bank));
+                }
+                fullySignedTx = subFlow(new CollectSignaturesFlow(signedTx, bankSessions, GATHERING_SIGS.childProgressTracker()));
+            }
 
             // Step 5. FINALISING_TRANSACTION.
-            progressTracker.setCurrentStep(FINALISING_TRANSACTION);
-            return subFlow(new FinalityFlow(signedTx, FINALISING_TRANSACTION.childProgressTracker()));
+            try {
+                return finished(finalise(fullySignedTx));
+            } catch (NotaryException e) {
+                //the caller named the inputs, there is nothing to select instead of a spent one
+                countConflictOnNamedInputs(e);
+                throw e;
+            }
         }
 
 
     }
 
+    /* --------------------- DestroyCashAcceptor: the bank countersigns the destruction of its cash ------------------- */
+    @InitiatedBy(DestroyMyCash.class)
+    public static class DestroyCashAcceptor extends FlowLogic<SignedTransaction> {
+
+        private final FlowSession otherPartyFlow;
+
+        public DestroyCashAcceptor(FlowSession otherPartyFlow) {
+            this.otherPartyFlow = otherPartyFlow;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            class SignTxFlow extends SignTransactionFlow {
+                private SignTxFlow(FlowSession otherPartyFlow, ProgressTracker progressTracker) {
+                    super(otherPartyFlow, progressTracker);
+                }
+
+                @Override
+                protected void checkTransaction(SignedTransaction stx) throws FlowException {
+                    //the contracts already passed, we only make sure this really is a destruction
+                    if (!stx.getTx().getOutputs().isEmpty()
+                            || stx.getTx().getCommands().size() != 1
+                            || !(stx.getTx().getCommands().get(0).getValue() instanceof MyCashContract.Commands.DestroyCash)) {
+                        throw new FlowException("The bank only countersigns a single DestroyCash command without outputs.");
+                    }
+                }
+            }
 
+            return subFlow(new SignTxFlow(otherPartyFlow, SignTransactionFlow.Companion.tracker()));
+        }
+    }
 }
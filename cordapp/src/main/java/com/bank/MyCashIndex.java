@@ -0,0 +1,278 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import net.corda.core.node.services.vault.Sort;
+import net.corda.core.node.services.vault.SortAttribute;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The unconsumed MyCashStates of this node's vault, per owner key and currency, kept in memory so that flows pick
+ * their inputs without querying and deserialising the owner's states again each time.
+ *
+ * An owner's states in a currency are read from the vault the first time a flow asks for them, oldest first, and from
+ * then on follow the vault's raw updates. States are kept in slots of a plain array with their quantities in a long
+ * array next to it; a consumed state leaves a hole that is squeezed out once holes are half the slots, so the slots
+ * stay in recorded order for OLDEST_FIRST.
+ *
+ * Raw updates are seen before the recording transaction commits, so after a rollback a state the index hands out may
+ * not be spendable, and a state it dropped may still be. MyCashSelection checks the states it picked against the vault,
+ * and has the index read the owner again when one of them is not or when it comes up short.
+ */
+@CordaService
+public class MyCashIndex extends SingletonSerializeAsToken {
+    private static final Sort BY_RECORDED_TIME = new Sort(ImmutableList.of(
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            new Sort.SortColumn(new SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)));
+
+    private final AppServiceHub serviceHub;
+    private final Map<PublicKey, Map<Currency, Slots>> owners = new HashMap<>();
+
+    public MyCashIndex(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        serviceHub.getVaultService().getRawUpdates().subscribe(this::onUpdate);
+    }
+
+    /**
+     * The unconsumed states of owner in currency, oldest first. Must be called from a flow, whose transaction reads
+     * the vault the first time.
+     */
+    Spendable spendable(AbstractParty owner, Currency currency) {
+        Slots slots;
+        synchronized (this) {
+            slots = slotsOf(owner.getOwningKey(), currency);
+            if (slots != null && slots.loaded) {
+                return slots.snapshot();
+            }
+            if (slots == null) {
+                //updates from here on are kept, including those racing with the read below, see Slots.produce
+                slots = new Slots();
+                owners.computeIfAbsent(owner.getOwningKey(), key -> new HashMap<>()).put(currency, slots);
+            }
+        }
+
+        final List<StateAndRef<MyCashState>> read = readVault(owner, currency);
+        synchronized (this) {
+            if (slotsOf(owner.getOwningKey(), currency) != slots) {
+                //forgotten while we were reading, so our read may be out of date as well, it is not kept
+                final Slots once = new Slots();
+                read.forEach(once::add);
+                return once.snapshot();
+            }
+            for (StateAndRef<MyCashState> state : read) {
+                if (!slots.consumedWhileLoading.contains(state.getRef())) {
+                    slots.add(state);
+                }
+            }
+            //produced while we were reading, so no older than anything the read found
+            for (StateAndRef<MyCashState> state : slots.producedWhileLoading.values()) {
+                slots.add(state);
+            }
+            slots.loaded = true;
+            slots.consumedWhileLoading.clear();
+            slots.producedWhileLoading.clear();
+            return slots.snapshot();
+        }
+    }
+
+    /* --- the next spendable() reads owner's states in currency from the vault again --- */
+    synchronized void forget(AbstractParty owner, Currency currency) {
+        final Map<Currency, Slots> byCurrency = owners.get(owner.getOwningKey());
+        if (byCurrency != null) {
+            byCurrency.remove(currency);
+        }
+    }
+
+    /* --- how many states the index holds for owner in currency, -1 when it has not read them yet --- */
+    public synchronized int size(AbstractParty owner, Currency currency) {
+        final Slots slots = slotsOf(owner.getOwningKey(), currency);
+        return slots == null || !slots.loaded ? -1 : slots.live;
+    }
+
+    private Slots slotsOf(PublicKey owner, Currency currency) {
+        final Map<Currency, Slots> byCurrency = owners.get(owner);
+        return byCurrency == null ? null : byCurrency.get(currency);
+    }
+
+    private synchronized void onUpdate(Vault.Update<ContractState> update) {
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            final Slots slots = slotsOf(consumed);
+            if (slots != null) {
+                slots.remove(consumed.getRef());
+            }
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            final Slots slots = slotsOf(produced);
+            if (slots != null) {
+                @SuppressWarnings("unchecked")
+                final StateAndRef<MyCashState> cash = (StateAndRef<MyCashState>) (StateAndRef<?>) produced;
+                slots.produce(cash);
+            }
+        }
+    }
+
+    /* --- only owners and currencies somebody asked for are followed --- */
+    private Slots slotsOf(StateAndRef<ContractState> stateAndRef) {
+        if (!(stateAndRef.getState().getData() instanceof MyCashState)) {
+            return null;
+        }
+        final MyCashState cash = (MyCashState) stateAndRef.getState().getData();
+        return slotsOf(cash.getOwner().getOwningKey(), cash.getAmount().getToken());
+    }
+
+    private List<StateAndRef<MyCashState>> readVault(AbstractParty owner, Currency currency) {
+        final VaultService vaultService = serviceHub.getVaultService();
+        final QueryCriteria criteria = MyCashQueries.ownedByInCurrency(owner, currency);
+        final List<StateAndRef<MyCashState>> states = new ArrayList<>();
+
+        int pageNumber = QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+        Vault.Page<MyCashState> page;
+        do {
+            page = vaultService.queryBy(MyCashState.class, criteria,
+                    new PageSpecification(pageNumber++, MyCashBaseFlow.PAGE_SIZE), BY_RECORDED_TIME);
+            states.addAll(page.getStates());
+        } while (!page.getStates().isEmpty() && states.size() < page.getTotalStatesAvailable());
+        return states;
+    }
+
+    /* --- one owner's states in one currency, slots in recorded order with holes where states were consumed --- */
+    private static final class Slots {
+        private Object[] states = new Object[16];
+        private long[] quantities = new long[16];
+        private int size = 0;
+        private int live = 0;
+        private final Map<StateRef, Integer> slotOf = new HashMap<>();
+        // Consumed before the first read of the vault finished, so the read must not bring them back.
+        private final Set<StateRef> consumedWhileLoading = new HashSet<>();
+        // Produced before the first read of the vault finished, added after what the read found to keep recorded order.
+        private final Map<StateRef, StateAndRef<MyCashState>> producedWhileLoading = new LinkedHashMap<>();
+        private boolean loaded = false;
+
+        private void produce(StateAndRef<MyCashState> state) {
+            if (loaded) {
+                add(state);
+            } else {
+                producedWhileLoading.put(state.getRef(), state);
+            }
+        }
+
+        private void add(StateAndRef<MyCashState> state) {
+            if (slotOf.containsKey(state.getRef())) {
+                return;
+            }
+            if (size == states.length) {
+                states = Arrays.copyOf(states, size * 2);
+                quantities = Arrays.copyOf(quantities, size * 2);
+            }
+            states[size] = state;
+            quantities[size] = state.getState().getData().getAmount().getQuantity();
+            slotOf.put(state.getRef(), size++);
+            ++live;
+        }
+
+        private void remove(StateRef ref) {
+            final Integer slot = slotOf.remove(ref);
+            if (!loaded) {
+                consumedWhileLoading.add(ref);
+                producedWhileLoading.remove(ref);
+            }
+            if (slot == null) {
+                return;
+            }
+            states[slot] = null;
+            quantities[slot] = 0;
+            --live;
+            if (live < size / 2) {
+                compact();
+            }
+        }
+
+        private void compact() {
+            int next = 0;
+            for (int i = 0; i < size; ++i) {
+                if (states[i] != null) {
+                    states[next] = states[i];
+                    quantities[next] = quantities[i];
+                    slotOf.put(stateAt(next).getRef(), next);
+                    ++next;
+                }
+            }
+            Arrays.fill(states, next, size, null);
+            size = next;
+        }
+
+        @SuppressWarnings("unchecked")
+        private StateAndRef<MyCashState> stateAt(int slot) {
+            return (StateAndRef<MyCashState>) states[slot];
+        }
+
+        private Spendable snapshot() {
+            final List<StateAndRef<MyCashState>> copy = new ArrayList<>(live);
+            final long[] copiedQuantities = new long[live];
+            for (int i = 0; i < size; ++i) {
+                if (states[i] != null) {
+                    copiedQuantities[copy.size()] = quantities[i];
+                    copy.add(stateAt(i));
+                }
+            }
+            return new Spendable(copy, copiedQuantities);
+        }
+    }
+
+    /* --- a copy of one owner's states in one currency, quantities[i] is the quantity of states.get(i) --- */
+    static final class Spendable {
+        final List<StateAndRef<MyCashState>> states;
+        final long[] quantities;
+
+        private Spendable(List<StateAndRef<MyCashState>> states, long[] quantities) {
+            this.states = states;
+            this.quantities = quantities;
+        }
+
+        /* --- the same states but those of refs --- */
+        Spendable without(Set<StateRef> refs) {
+            if (refs.isEmpty()) {
+                return this;
+            }
+            final List<StateAndRef<MyCashState>> kept = new ArrayList<>(states.size());
+            final long[] keptQuantities = new long[states.size()];
+            for (int i = 0; i < states.size(); ++i) {
+                if (!refs.contains(states.get(i).getRef())) {
+                    keptQuantities[kept.size()] = quantities[i];
+                    kept.add(states.get(i));
+                }
+            }
+            return new Spendable(kept, Arrays.copyOf(keptQuantities, kept.size()));
+        }
+
+        long total() {
+            long total = 0;
+            for (long quantity : quantities) {
+                total += quantity;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * One line of a bulk issuance: the bank issues the amount to the owner.
+ */
+@CordaSerializable
+public class MyCashIssuance {
+    private final Party owner;
+    private final Amount<Currency> amount;
+
+    public MyCashIssuance(Party owner, Amount<Currency> amount) {
+        this.owner = owner;
+        this.amount = amount;
+    }
+
+    public Party getOwner() {
+        return owner;
+    }
+
+    public Amount<Currency> getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashIssuance(owner=%s, amount=%s)", owner, amount);
+    }
+}
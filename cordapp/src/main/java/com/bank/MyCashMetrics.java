@@ -0,0 +1,76 @@
+package com.bank;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers of the MyCash flows, one per flow class and progress step plus one for the whole flow, e.g.
+ * TransferMyCash.gathering_sigs or TransferMyCash.total, and counters of the transfers our acceptors turned down,
+ * acceptor.rejected.total and one acceptor.rejected.reason per reason. selection.notary_changes counts inputs moved to
+ * another notary before a transfer, selection.notary_changes_avoided those that input selection kept from moving.
+ * netting.gross_obligations and netting.net_transactions count the obligations NetSettleMyCash settled and the
+ * transactions it took, their ratio is how many notarisations netting saves. settlement.transfers_per_transaction
+ * is the size of each batch the deferred settlement queue paid in one transaction. retry.total and one
+ * retry.flow.reason per flow class and reason count the notary conflicts flows ran into: notary_conflict when the flow
+ * selected again, gave_up when it was out of attempts, named_inputs when the caller had named the inputs.
+ *
+ * They are published over JMX under the com.bank.mycash domain, durations in milliseconds, so the node's usual JMX
+ * or Jolokia tooling shows where a flow spends its time: vault queries while generating, contract code while
+ * verifying, the counterparty while gathering signatures, the notary while finalising.
+ */
+@CordaService
+public class MyCashMetrics extends SingletonSerializeAsToken {
+    public static final String JMX_DOMAIN = "com.bank.mycash";
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    public MyCashMetrics(AppServiceHub serviceHub) {
+        JmxReporter.forRegistry(registry)
+                .inDomain(JMX_DOMAIN)
+                .convertDurationsTo(TimeUnit.MILLISECONDS)
+                .convertRatesTo(TimeUnit.SECONDS)
+                .build()
+                .start();
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    public Timer timer(Class<?> flowClass, String name) {
+        return registry.timer(MetricRegistry.name(flowClass.getSimpleName(), name));
+    }
+
+    public void notaryChanges(int count) {
+        registry.counter("selection.notary_changes").inc(count);
+    }
+
+    public void notaryChangesAvoided(int count) {
+        registry.counter("selection.notary_changes_avoided").inc(count);
+    }
+
+    public void netted(int grossObligations, int netTransactions) {
+        registry.counter("netting.gross_obligations").inc(grossObligations);
+        registry.counter("netting.net_transactions").inc(netTransactions);
+    }
+
+    public void settled(int transfers) {
+        registry.histogram("settlement.transfers_per_transaction").update(transfers);
+    }
+
+    public void retried(Class<?> flowClass, String reason) {
+        registry.counter("retry.total").inc();
+        registry.counter(MetricRegistry.name("retry", flowClass.getSimpleName(), reason)).inc();
+    }
+
+    public void rejected(String reason) {
+        registry.counter("acceptor.rejected.total").inc();
+        registry.counter(MetricRegistry.name("acceptor.rejected", reason)).inc();
+    }
+}
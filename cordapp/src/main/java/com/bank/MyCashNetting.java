@@ -0,0 +1,166 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.transactions.LedgerTransaction;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The net position of every party of a window of obligations in one currency, what it receives minus what it pays.
+ *
+ * Both NetSettleMyCash and the parties it settles compute it from the same window, so each party checks on its own
+ * that the settlement moves exactly its net position, and every payer that the obligations it owes are ones it
+ * recorded itself.
+ */
+class MyCashNetting {
+    private final Currency currency;
+    private final int obligationCount;
+    private final long grossQuantity;
+    //parties in the order they were first listed
+    private final Map<Party, Long> positions;
+    private final List<MyCashObligation> obligations;
+
+    private MyCashNetting(Currency currency, long grossQuantity, Map<Party, Long> positions, List<MyCashObligation> obligations) {
+        this.currency = currency;
+        this.obligationCount = obligations.size();
+        this.grossQuantity = grossQuantity;
+        this.positions = positions;
+        this.obligations = obligations;
+    }
+
+    static MyCashNetting of(List<MyCashObligation> obligations) throws FlowException {
+        if (obligations == null || obligations.isEmpty()) {
+            throw new FlowException("Netting needs at least one obligation.");
+        }
+        final Currency currency = obligations.get(0).getAmount().getToken();
+        final Map<Party, Long> positions = new LinkedHashMap<>();
+        final Set<UUID> ids = new HashSet<>();
+        long gross = 0;
+        try {
+            for (MyCashObligation obligation : obligations) {
+                if (!currency.equals(obligation.getAmount().getToken())) {
+                    throw new FlowException(String.format("All obligations must be in %s but found %s.", currency, obligation));
+                }
+                if (obligation.getAmount().getQuantity() <= 0) {
+                    throw new FlowException(String.format("Obligation amounts must be positive but found %s.", obligation));
+                }
+                if (obligation.getPayer().equals(obligation.getPayee())) {
+                    throw new FlowException(String.format("A party cannot owe itself but found %s.", obligation));
+                }
+                if (obligation.getId() == null) {
+                    throw new FlowException(String.format("An obligation needs the id its payer recorded it with but found %s.", obligation));
+                }
+                if (!ids.add(obligation.getId())) {
+                    throw new FlowException(String.format("An obligation can be netted once but found %s twice.", obligation));
+                }
+                final long quantity = obligation.getAmount().getQuantity();
+                gross = Math.addExact(gross, quantity);
+                positions.merge(obligation.getPayer(), -quantity, Math::addExact);
+                positions.merge(obligation.getPayee(), quantity, Math::addExact);
+            }
+        } catch (ArithmeticException e) {
+            throw new FlowException("The obligations add up to more than an amount can hold.", e);
+        }
+        return new MyCashNetting(currency, gross, positions, obligations);
+    }
+
+    Currency getCurrency() {
+        return currency;
+    }
+
+    int getObligationCount() {
+        return obligationCount;
+    }
+
+    Amount<Currency> getGrossAmount() {
+        return new Amount<>(grossQuantity, currency);
+    }
+
+    /* --- what all the net payers pay together, the same as what the net payees receive --- */
+    Amount<Currency> getNetAmount() {
+        long net = 0;
+        for (long position : positions.values()) {
+            net += position > 0 ? position : 0;
+        }
+        return new Amount<>(net, currency);
+    }
+
+    long positionOf(Party party) {
+        return positions.getOrDefault(party, 0L);
+    }
+
+    List<Party> getPayers() {
+        return partiesWhere(-1);
+    }
+
+    /* --- every party that owes anything, a party whose obligations cancel out still has to agree to that --- */
+    Set<Party> getObligors() {
+        final Set<Party> obligors = new LinkedHashSet<>();
+        for (MyCashObligation obligation : obligations) {
+            obligors.add(obligation.getPayer());
+        }
+        return obligors;
+    }
+
+    List<MyCashObligation> owedBy(Party payer) {
+        final List<MyCashObligation> owed = new ArrayList<>();
+        for (MyCashObligation obligation : obligations) {
+            if (payer.equals(obligation.getPayer())) {
+                owed.add(obligation);
+            }
+        }
+        return owed;
+    }
+
+    List<Party> getPayees() {
+        return partiesWhere(1);
+    }
+
+    private List<Party> partiesWhere(int sign) {
+        final List<Party> parties = new ArrayList<>();
+        for (Map.Entry<Party, Long> position : positions.entrySet()) {
+            if (Long.signum(position.getValue()) == sign) {
+                parties.add(position.getKey());
+            }
+        }
+        return parties;
+    }
+
+    /* --- the settlement must change party's cash by its net position and hold no other currency of party's --- */
+    void checkSettles(LedgerTransaction ledgerTx, Party party) throws FlowException {
+        long change = 0;
+        for (MyCashState input : ledgerTx.inputsOfType(MyCashState.class)) {
+            if (party.equals(input.getOwner())) {
+                change -= quantityOf(input, party);
+            }
+        }
+        for (MyCashState output : ledgerTx.outputsOfType(MyCashState.class)) {
+            if (party.equals(output.getOwner())) {
+                change += quantityOf(output, party);
+            }
+        }
+        if (change != positionOf(party)) {
+            throw new FlowException(String.format("The settlement changes the cash of %s by %s instead of %s.",
+                    party, new Amount<>(change, currency), new Amount<>(positionOf(party), currency)));
+        }
+    }
+
+    private long quantityOf(MyCashState cash, AbstractParty owner) throws FlowException {
+        if (!currency.equals(cash.getAmount().getToken())) {
+            throw new FlowException(String.format("The settlement moves %s of %s, only %s is being netted.",
+                    cash.getAmount(), owner, currency));
+        }
+        return cash.getAmount().getQuantity();
+    }
+}
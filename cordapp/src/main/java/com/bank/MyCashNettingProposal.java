@@ -0,0 +1,29 @@
+package com.bank;
+
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.List;
+
+/**
+ * What NetSettleMyCash sends every party with a net position: the window of obligations being netted and the notary
+ * of the settlement, which a net payer moves its inputs onto.
+ */
+@CordaSerializable
+public class MyCashNettingProposal {
+    private final List<MyCashObligation> obligations;
+    private final Party notary;
+
+    public MyCashNettingProposal(List<MyCashObligation> obligations, Party notary) {
+        this.obligations = obligations;
+        this.notary = notary;
+    }
+
+    public List<MyCashObligation> getObligations() {
+        return obligations;
+    }
+
+    public Party getNotary() {
+        return notary;
+    }
+}
@@ -0,0 +1,76 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * What NetSettleMyCash did: the obligations it netted, the gross amount they add up to and the net amount that
+ * actually moved in the single settlement transaction. txId is null when every position netted out to zero.
+ */
+@CordaSerializable
+public class MyCashNettingReport {
+    private final Currency currency;
+    private final int obligations;
+    private final int participants;
+    private final Amount<Currency> grossAmount;
+    private final Amount<Currency> netAmount;
+    private final SecureHash txId;
+
+    public MyCashNettingReport(Currency currency, int obligations, int participants,
+                               Amount<Currency> grossAmount, Amount<Currency> netAmount, SecureHash txId) {
+        this.currency = currency;
+        this.obligations = obligations;
+        this.participants = participants;
+        this.grossAmount = grossAmount;
+        this.netAmount = netAmount;
+        this.txId = txId;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    /* --- each one would have been its own transfer transaction --- */
+    public int getObligations() {
+        return obligations;
+    }
+
+    /* --- parties whose net position is not zero, they all sign the settlement --- */
+    public int getParticipants() {
+        return participants;
+    }
+
+    public Amount<Currency> getGrossAmount() {
+        return grossAmount;
+    }
+
+    public Amount<Currency> getNetAmount() {
+        return netAmount;
+    }
+
+    public SecureHash getTxId() {
+        return txId;
+    }
+
+    public int getNetTransactions() {
+        return txId == null ? 0 : 1;
+    }
+
+    public int getNotarisationsSaved() {
+        return obligations - getNetTransactions();
+    }
+
+    /* --- gross transactions per net one, the obligation count itself when nothing had to move --- */
+    public double getGrossToNetRatio() {
+        return (double) obligations / Math.max(1, getNetTransactions());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashNettingReport(currency=%s, obligations=%d, participants=%d, gross=%s, net=%s, grossToNet=%.1f, txId=%s)",
+                currency, obligations, participants, grossAmount, netAmount, getGrossToNetRatio(), txId);
+    }
+}
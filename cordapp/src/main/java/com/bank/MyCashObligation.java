@@ -0,0 +1,49 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * A payment payer owes payee that has not been settled yet, one entry of the window NetSettleMyCash nets. The payer
+ * records it with RecordMyCashObligation, which gives it its id, and only signs a settlement of obligations it has
+ * recorded, see MyCashObligationStore.
+ */
+@CordaSerializable
+public class MyCashObligation {
+    private final UUID id;
+    private final Party payer;
+    private final Party payee;
+    private final Amount<Currency> amount;
+
+    public MyCashObligation(UUID id, Party payer, Party payee, Amount<Currency> amount) {
+        this.id = id;
+        this.payer = payer;
+        this.payee = payee;
+        this.amount = amount;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public Party getPayer() {
+        return payer;
+    }
+
+    public Party getPayee() {
+        return payee;
+    }
+
+    public Amount<Currency> getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashObligation(id=%s, payer=%s, payee=%s, amount=%s)", id, payer, payee, amount);
+    }
+}
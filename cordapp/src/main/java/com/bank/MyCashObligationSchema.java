@@ -0,0 +1,8 @@
+package com.bank;
+
+/**
+ * The family of schemas of the obligations a node has recorded as their payer, see MyCashObligationStore. Each
+ * version is a MappedSchema of this family.
+ */
+public class MyCashObligationSchema {
+}
@@ -0,0 +1,86 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * First version of the obligation schema. Every obligation this node owes gets one row, which the node creates the
+ * table for like any other CorDapp schema. Rows are read and written with plain SQL by MyCashObligationStore.
+ */
+public class MyCashObligationSchemaV1 extends MappedSchema {
+
+    public MyCashObligationSchemaV1() {
+        super(MyCashObligationSchema.class, 1, ImmutableList.of(PersistentObligation.class));
+    }
+
+    @Entity
+    @Table(name = "my_cash_obligations")
+    public static class PersistentObligation {
+        @Id
+        @Column(name = "obligation_id", length = 36, nullable = false)
+        private final String obligationId;
+        @Column(name = "payee_name", nullable = false)
+        private final String payeeName;
+        @Column(name = "currency", length = 3, nullable = false)
+        private final String currency;
+        @Column(name = "quantity", nullable = false)
+        private final long quantity;
+        @Column(name = "status", length = 16, nullable = false)
+        private final String status;
+        @Column(name = "recorded_at", nullable = false)
+        private final long recordedAt;
+        @Column(name = "tx_id", length = 64)
+        private final String txId;
+        @Column(name = "settle_by")
+        private final Long settleBy;
+
+        // Default constructor required by hibernate.
+        public PersistentObligation() {
+            this.obligationId = null;
+            this.payeeName = null;
+            this.currency = null;
+            this.quantity = 0;
+            this.status = null;
+            this.recordedAt = 0;
+            this.txId = null;
+            this.settleBy = null;
+        }
+
+        public String getObligationId() {
+            return obligationId;
+        }
+
+        public String getPayeeName() {
+            return payeeName;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getRecordedAt() {
+            return recordedAt;
+        }
+
+        public String getTxId() {
+            return txId;
+        }
+
+        public Long getSettleBy() {
+            return settleBy;
+        }
+    }
+}
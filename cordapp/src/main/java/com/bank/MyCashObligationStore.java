@@ -0,0 +1,147 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.TransactionStorage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The obligations this node owes, as rows of MyCashObligationSchemaV1 read and written on the JDBC connection of the
+ * calling flow's transaction. Take a new store after every suspension, the connection belongs to the transaction it
+ * was taken in.
+ *
+ * An obligation stays OPEN until the settlement netting it is recorded by this node, then it is NETTED. Signing a
+ * settlement only reserves the obligation for it, with the settlement's id and the end of its time window, so that
+ * no other settlement takes it meanwhile. A reservation is resolved whenever the obligation is checked again: a
+ * recorded settlement nets it, one whose window ended more than REOPEN_GRACE_MILLIS ago can no longer be notarised
+ * and the obligation is open again for the next one.
+ */
+class MyCashObligationStore {
+    static final String OPEN = "OPEN";
+    static final String NETTED = "NETTED";
+    //how long after its window a notarised settlement may still take to reach us, e.g. from a restarted coordinator
+    static final long REOPEN_GRACE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final Connection connection;
+    private final TransactionStorage recorded;
+
+    MyCashObligationStore(Connection connection, TransactionStorage recorded) {
+        this.connection = connection;
+        this.recorded = recorded;
+    }
+
+    void insert(UUID id, CordaX500Name payee, Amount<Currency> amount) throws FlowException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO my_cash_obligations "
+                + "(obligation_id, payee_name, currency, quantity, status, recorded_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, id.toString());
+            insert.setString(2, payee.toString());
+            insert.setString(3, amount.getToken().getCurrencyCode());
+            insert.setLong(4, amount.getQuantity());
+            insert.setString(5, OPEN);
+            insert.setLong(6, System.currentTimeMillis());
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw failed("recording", e);
+        }
+    }
+
+    /* --- every one of owed must be an OPEN obligation of ours, to the same payee and of the same amount, that no
+       settlement still holds a reservation on --- */
+    void checkOpen(List<MyCashObligation> owed) throws FlowException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT payee_name, currency, quantity, status, tx_id, "
+                + "settle_by FROM my_cash_obligations WHERE obligation_id = ?")) {
+            for (MyCashObligation obligation : owed) {
+                select.setString(1, obligation.getId().toString());
+                try (ResultSet row = select.executeQuery()) {
+                    if (!row.next()) {
+                        throw new FlowException(String.format("%s was never recorded by its payer.", obligation));
+                    }
+                    if (!obligation.getPayee().getName().equals(CordaX500Name.parse(row.getString("payee_name")))
+                            || !obligation.getAmount().getToken().getCurrencyCode().equals(row.getString("currency"))
+                            || obligation.getAmount().getQuantity() != row.getLong("quantity")) {
+                        throw new FlowException(String.format("%s does not match the obligation its payer recorded.", obligation));
+                    }
+                    if (!OPEN.equals(row.getString("status"))) {
+                        throw new FlowException(String.format("%s is already %s.", obligation, row.getString("status")));
+                    }
+                    if (row.getString("tx_id") != null) {
+                        resolve(obligation, SecureHash.parse(row.getString("tx_id")), row.getLong("settle_by"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("reading", e);
+        }
+    }
+
+    /* --- Reserves owed for settlement, which cannot be notarised after settleBy. The conditions of the update make
+       two settlements of one obligation fail in the second, even when both were checked open --- */
+    void reserve(List<MyCashObligation> owed, SecureHash settlement, long settleBy) throws FlowException {
+        checkOpen(owed);
+        try (PreparedStatement update = connection.prepareStatement("UPDATE my_cash_obligations SET tx_id = ?, settle_by = ? "
+                + "WHERE obligation_id = ? AND status = ? AND tx_id IS NULL")) {
+            for (MyCashObligation obligation : owed) {
+                update.setString(1, settlement.toString());
+                update.setLong(2, settleBy);
+                update.setString(3, obligation.getId().toString());
+                update.setString(4, OPEN);
+                if (update.executeUpdate() != 1) {
+                    throw new FlowException(String.format("%s is reserved by another settlement.", obligation));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("reserving", e);
+        }
+    }
+
+    /* --- Turns owed NETTED, to be called once settlement is recorded. Obligations another settlement holds by now
+       are left alone --- */
+    void net(List<MyCashObligation> owed, SecureHash settlement) throws FlowException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE my_cash_obligations SET status = ? "
+                + "WHERE obligation_id = ? AND tx_id = ?")) {
+            for (MyCashObligation obligation : owed) {
+                update.setString(1, NETTED);
+                update.setString(2, obligation.getId().toString());
+                update.setString(3, settlement.toString());
+                update.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw failed("netting", e);
+        }
+    }
+
+    /* --- an obligation reserved by settlement is netted if we recorded it, open again if it can no longer be
+       notarised and still reserved otherwise --- */
+    private void resolve(MyCashObligation obligation, SecureHash settlement, long settleBy) throws SQLException, FlowException {
+        if (recorded.getTransaction(settlement) != null) {
+            net(ImmutableList.of(obligation), settlement);
+            throw new FlowException(String.format("%s was netted by %s.", obligation, settlement));
+        }
+        if (System.currentTimeMillis() < settleBy + REOPEN_GRACE_MILLIS) {
+            throw new FlowException(String.format("%s is reserved by settlement %s until %s.", obligation, settlement,
+                    Instant.ofEpochMilli(settleBy + REOPEN_GRACE_MILLIS)));
+        }
+        try (PreparedStatement update = connection.prepareStatement("UPDATE my_cash_obligations SET tx_id = NULL, "
+                + "settle_by = NULL WHERE obligation_id = ? AND tx_id = ?")) {
+            update.setString(1, obligation.getId().toString());
+            update.setString(2, settlement.toString());
+            update.executeUpdate();
+        }
+    }
+
+    private static FlowException failed(String what, SQLException e) {
+        return new FlowException(String.format("The obligation store failed %s obligations: %s", what, e.getMessage()), e);
+    }
+}
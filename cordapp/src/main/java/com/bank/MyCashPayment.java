@@ -0,0 +1,34 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.Party;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * One payee of a multi-payee transfer and the amount it receives.
+ */
+@CordaSerializable
+public class MyCashPayment {
+    private final Party payee;
+    private final Amount<Currency> amount;
+
+    public MyCashPayment(Party payee, Amount<Currency> amount) {
+        this.payee = payee;
+        this.amount = amount;
+    }
+
+    public Party getPayee() {
+        return payee;
+    }
+
+    public Amount<Currency> getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashPayment(payee=%s, amount=%s)", payee, amount);
+    }
+}
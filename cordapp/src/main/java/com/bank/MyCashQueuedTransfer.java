@@ -0,0 +1,80 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * One transfer waiting in, or settled from, the deferred settlement queue. txId is set once SETTLED, error once FAILED.
+ * UNKNOWN is a transfer whose settlement ended without an outcome after its transaction, txId, was signed but before
+ * this node recorded it; it may or may not have paid the payee, see error.
+ */
+@CordaSerializable
+public class MyCashQueuedTransfer {
+    @CordaSerializable
+    public enum Status {
+        PENDING, SETTLING, SETTLED, FAILED, UNKNOWN
+    }
+
+    private final UUID id;
+    private final CordaX500Name payee;
+    private final Amount<Currency> amount;
+    private final Status status;
+    private final SecureHash txId;
+    private final String error;
+
+    public MyCashQueuedTransfer(UUID id, CordaX500Name payee, Amount<Currency> amount, Status status, SecureHash txId, String error) {
+        this.id = id;
+        this.payee = payee;
+        this.amount = amount;
+        this.status = status;
+        this.txId = txId;
+        this.error = error;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public CordaX500Name getPayee() {
+        return payee;
+    }
+
+    public Amount<Currency> getAmount() {
+        return amount;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public SecureHash getTxId() {
+        return txId;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public MyCashQueuedTransfer settled(SecureHash txId) {
+        return new MyCashQueuedTransfer(id, payee, amount, Status.SETTLED, txId, null);
+    }
+
+    public MyCashQueuedTransfer failed(String error) {
+        return new MyCashQueuedTransfer(id, payee, amount, Status.FAILED, null, error);
+    }
+
+    public MyCashQueuedTransfer unknown(SecureHash txId, String error) {
+        return new MyCashQueuedTransfer(id, payee, amount, Status.UNKNOWN, txId, error);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashQueuedTransfer(id=%s, payee=%s, amount=%s, status=%s, txId=%s, error=%s)",
+                id, payee, amount, status, txId, error);
+    }
+}
@@ -0,0 +1,79 @@
+package com.bank;
+
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.StateMachineUpdate;
+import net.corda.core.utilities.Try;
+import rx.Observable;
+import rx.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * For RPC clients of the settlement queue: the outcomes of every SettleMyCashQueue on a node, read from the results of
+ * its finished flows, and a future for one queued transfer built on them.
+ */
+public class MyCashQueuedTransferFeed {
+
+    private MyCashQueuedTransferFeed() {
+    }
+
+    /**
+     * Every transfer a settlement flow settles or fails from now on, the timer's flushes included.
+     */
+    public static Observable<MyCashQueuedTransfer> outcomes(CordaRPCOps rpc) {
+        return rpc.stateMachinesFeed().getUpdates().concatMap(update -> Observable.from(outcomesOf(update)));
+    }
+
+    /**
+     * Completes once the transfer QueueMyCashTransfer returned id for is SETTLED, FAILED or UNKNOWN. Works however long ago
+     * it was queued, across restarts of the node too: a transfer that is already final is answered from the queue.
+     */
+    public static CompletableFuture<MyCashQueuedTransfer> whenFinal(CordaRPCOps rpc, UUID id) {
+        final CompletableFuture<MyCashQueuedTransfer> done = new CompletableFuture<>();
+        final Subscription subscription = outcomes(rpc)
+                .filter(outcome -> id.equals(outcome.getId()))
+                .subscribe(done::complete, done::completeExceptionally);
+        done.whenComplete((outcome, error) -> subscription.unsubscribe());
+
+        //asked only once we listen, so that an outcome cannot slip between the two
+        rpc.startFlowDynamic(MyCashFlows.QueuedMyCashTransferStatus.class, id).getReturnValue().then(status -> {
+            try {
+                final MyCashQueuedTransfer transfer = status.get();
+                if (isFinal(transfer)) {
+                    done.complete(transfer);
+                }
+            } catch (Exception e) {
+                done.completeExceptionally(e.getCause() == null ? e : e.getCause());
+            }
+            return null;
+        });
+        return done;
+    }
+
+    private static List<MyCashQueuedTransfer> outcomesOf(StateMachineUpdate update) {
+        if (!(update instanceof StateMachineUpdate.Removed)) {
+            return Collections.emptyList();
+        }
+        final Try<?> result = ((StateMachineUpdate.Removed) update).getResult();
+        if (!(result instanceof Try.Success) || !(((Try.Success<?>) result).getValue() instanceof List)) {
+            return Collections.emptyList();
+        }
+        final List<MyCashQueuedTransfer> outcomes = new ArrayList<>();
+        for (Object value : (List<?>) ((Try.Success<?>) result).getValue()) {
+            if (value instanceof MyCashQueuedTransfer && isFinal((MyCashQueuedTransfer) value)) {
+                outcomes.add((MyCashQueuedTransfer) value);
+            }
+        }
+        return outcomes;
+    }
+
+    private static boolean isFinal(MyCashQueuedTransfer transfer) {
+        return transfer.getStatus() == MyCashQueuedTransfer.Status.SETTLED
+                || transfer.getStatus() == MyCashQueuedTransfer.Status.FAILED
+                || transfer.getStatus() == MyCashQueuedTransfer.Status.UNKNOWN;
+    }
+}
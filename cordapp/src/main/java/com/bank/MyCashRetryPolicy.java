@@ -0,0 +1,24 @@
+package com.bank;
+
+/**
+ * How often a transfer that lost its inputs to a notary conflict selects again, read from the system property
+ * com.bank.retry.maxAttempts of the node: attempts including the first, default 3, 1 turns retrying off.
+ *
+ * A retry selects again at once. The states the notary named are left out and the others are soft locked, so waiting
+ * would not make the next attempt any likelier to win, and Corda 3 has no way for a flow to wait without blocking the
+ * thread it runs on.
+ */
+public class MyCashRetryPolicy {
+    public static final String MAX_ATTEMPTS_PROPERTY = "com.bank.retry.maxAttempts";
+
+    private final int maxAttempts;
+
+    MyCashRetryPolicy() {
+        this.maxAttempts = Math.max(1, Integer.getInteger(MAX_ATTEMPTS_PROPERTY, 3));
+    }
+
+    /* --- attempt is the one that just failed, counting from 1 --- */
+    boolean allowsAnotherAfter(int attempt) {
+        return attempt < maxAttempts;
+    }
+}
@@ -0,0 +1,224 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.StatesNotAvailableException;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import net.corda.core.utilities.NonEmptySet;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Picks unconsumed MyCashStates of one owner that together cover a target amount.
+ *
+ * Candidates come from MyCashIndex, which holds the owner's states and quantities in memory, so a selection neither
+ * queries nor deserialises the owner's states. The index follows transactions before they commit, so it can be wrong
+ * either way after one rolls back: it may hold states that were never recorded, or have dropped states that are still
+ * unconsumed. Only the states picked are counted against the vault, in one query, for the first; a selection that
+ * finds too little cash checks for the second. Either way the index reads the owner again and the selection is made
+ * once more.
+ *
+ * The states picked are soft locked to the calling flow's run id before they are handed out, and states locked by
+ * any flow are left out of the candidates, so concurrent flows of one owner do not pick the same states and find out
+ * only at the notary. A flow that loses the race for a lock selects again. The node releases a flow's locks when the
+ * flow ends, however it ends. Setting the node's system property com.bank.selection.softLocking to false leaves locks
+ * out of selection altogether, only so that the notary conflicts they save can be measured.
+ *
+ * Inputs on different notaries cannot be spent together without notary changes, so when the strategy's own choice
+ * spans notaries the strategy is run again on each notary's states alone. The best single-notary choice wins and the
+ * notary changes it saved are counted in MyCashMetrics. Only when no single notary holds enough does the cross-notary
+ * choice stand, and the flow moves its inputs, see MyCashBaseFlow.onOneNotary.
+ */
+public class MyCashSelection {
+    public static final String SOFT_LOCKING_PROPERTY = "com.bank.selection.softLocking";
+    private static final int LOCK_ATTEMPTS = 5;
+
+    private final ServiceHub serviceHub;
+    private final boolean softLocking;
+
+    MyCashSelection(ServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.softLocking = Boolean.parseBoolean(System.getProperty(SOFT_LOCKING_PROPERTY, "true"));
+    }
+
+    List<StateAndRef<MyCashState>> select(AbstractParty owner, Amount<Currency> target, CashSelectionStrategy strategy,
+                                          UUID lockId) throws FlowException {
+        return select(owner, target, strategy, lockId, new HashSet<>());
+    }
+
+    /* --- excluded states are never picked, e.g. those a notary has already seen spent --- */
+    List<StateAndRef<MyCashState>> select(AbstractParty owner, Amount<Currency> target, CashSelectionStrategy strategy,
+                                          UUID lockId, Set<StateRef> excluded) throws FlowException {
+        if (target.getQuantity() <= 0) {
+            throw new FlowException("The amount of cash to select must be positive.");
+        }
+
+        final MyCashIndex index = serviceHub.cordaService(MyCashIndex.class);
+        for (int attempt = 1; ; ++attempt) {
+            final Set<StateRef> unusable = softLocking ? locked(owner, target.getToken()) : new HashSet<>();
+            unusable.addAll(excluded);
+            MyCashIndex.Spendable candidates = index.spendable(owner, target.getToken()).without(unusable);
+            List<StateAndRef<MyCashState>> selected = choose(candidates, target, strategy);
+            if (selected == null || !allUnconsumed(selected)) {
+                index.forget(owner, target.getToken());
+                candidates = index.spendable(owner, target.getToken()).without(unusable);
+                selected = choose(candidates, target, strategy);
+                if (selected == null) {
+                    throw new FlowException(String.format("Insufficient cash: %s requested but only %s available.",
+                            target, new Amount<>(candidates.total(), target.getToken())));
+                }
+            }
+            if (!softLocking) {
+                return selected;
+            }
+            try {
+                lock(selected, lockId);
+                return selected;
+            } catch (StatesNotAvailableException e) {
+                //another flow locked some of them since we looked
+                if (attempt == LOCK_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /* --- every state of owner in currency that no flow holds a lock on --- */
+    MyCashIndex.Spendable unlocked(AbstractParty owner, Currency currency) {
+        return serviceHub.cordaService(MyCashIndex.class).spendable(owner, currency).without(locked(owner, currency));
+    }
+
+    /* --- reserves states for the flow whose run id is lockId, throws StatesNotAvailableException if another has them --- */
+    void lock(List<StateAndRef<MyCashState>> states, UUID lockId) throws StatesNotAvailableException {
+        final List<StateRef> refs = new ArrayList<>(states.size());
+        for (StateAndRef<MyCashState> state : states) {
+            refs.add(state.getRef());
+        }
+        serviceHub.getVaultService().softLockReserve(lockId, NonEmptySet.copyOf(refs));
+    }
+
+    /* --- owner's states in currency that some flow holds a lock on, usually few, so reading them is cheap --- */
+    private Set<StateRef> locked(AbstractParty owner, Currency currency) {
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, null, null,
+                new QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.LOCKED_ONLY, ImmutableList.of()))
+                .and(MyCashQueries.ownedByInCurrency(owner, currency));
+        final Set<StateRef> locked = new HashSet<>();
+
+        int pageNumber = QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+        Vault.Page<MyCashState> page;
+        do {
+            page = serviceHub.getVaultService().queryBy(MyCashState.class, criteria,
+                    new PageSpecification(pageNumber++, MyCashBaseFlow.PAGE_SIZE));
+            for (StateAndRef<MyCashState> state : page.getStates()) {
+                locked.add(state.getRef());
+            }
+        } while (!page.getStates().isEmpty() && locked.size() < page.getTotalStatesAvailable());
+        return locked;
+    }
+
+    /* --- null when the candidates do not cover target --- */
+    private List<StateAndRef<MyCashState>> choose(MyCashIndex.Spendable candidates, Amount<Currency> target,
+                                                  CashSelectionStrategy strategy) {
+        final int[] anyNotary = strategy.choose(candidates.quantities, candidates.states.size(), target.getQuantity());
+        if (anyNotary == null) {
+            return null;
+        }
+
+        final int changesNeeded = movesNeeded(candidates, anyNotary);
+        int[] chosen = anyNotary;
+        if (changesNeeded > 0) {
+            final int[] oneNotary = chooseOnOneNotary(candidates, strategy, target.getQuantity());
+            if (oneNotary != null) {
+                chosen = oneNotary;
+                serviceHub.cordaService(MyCashMetrics.class).notaryChangesAvoided(changesNeeded);
+            }
+        }
+
+        final List<StateAndRef<MyCashState>> selected = new ArrayList<>(chosen.length);
+        for (int i : chosen) {
+            selected.add(candidates.states.get(i));
+        }
+        return selected;
+    }
+
+    /* --- a count query on the refs, a single state is read back --- */
+    private boolean allUnconsumed(List<StateAndRef<MyCashState>> selected) {
+        final List<StateRef> refs = new ArrayList<>(selected.size());
+        for (StateAndRef<MyCashState> state : selected) {
+            refs.add(state.getRef());
+        }
+        final QueryCriteria criteria = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.UNCONSUMED, null, refs);
+        return serviceHub.getVaultService().queryBy(MyCashState.class, criteria,
+                new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, 1)).getTotalStatesAvailable() == refs.size();
+    }
+
+    /* --- inputs of chosen that are not on the notary holding most of them --- */
+    private static int movesNeeded(MyCashIndex.Spendable candidates, int[] chosen) {
+        final Map<Party, Integer> perNotary = new LinkedHashMap<>();
+        int most = 0;
+        for (int index : chosen) {
+            most = Math.max(most, perNotary.merge(notaryOf(candidates, index), 1, Integer::sum));
+        }
+        return chosen.length - most;
+    }
+
+    /* --- the strategy run on each notary's candidates alone, the best covering choice or null --- */
+    private static int[] chooseOnOneNotary(MyCashIndex.Spendable candidates, CashSelectionStrategy strategy, long target) {
+        final Map<Party, List<Integer>> byNotary = new LinkedHashMap<>();
+        for (int i = 0; i < candidates.states.size(); ++i) {
+            byNotary.computeIfAbsent(notaryOf(candidates, i), notary -> new ArrayList<>()).add(i);
+        }
+
+        int[] best = null;
+        long bestTotal = 0;
+        for (List<Integer> indexes : byNotary.values()) {
+            final long[] quantities = new long[indexes.size()];
+            for (int i = 0; i < quantities.length; ++i) {
+                quantities[i] = candidates.quantities[indexes.get(i)];
+            }
+            final int[] local = strategy.choose(quantities, quantities.length, target);
+            if (local == null) {
+                continue;
+            }
+            final int[] chosen = new int[local.length];
+            long total = 0;
+            for (int i = 0; i < local.length; ++i) {
+                chosen[i] = indexes.get(local[i]);
+                total += quantities[local[i]];
+            }
+            if (best == null || better(strategy, chosen.length, total, best.length, bestTotal)) {
+                best = chosen;
+                bestTotal = total;
+            }
+        }
+        return best;
+    }
+
+    //SMALLEST_CHANGE puts the change first, the others the number of inputs
+    private static boolean better(CashSelectionStrategy strategy, int inputs, long total, int bestInputs, long bestTotal) {
+        if (strategy == CashSelectionStrategy.SMALLEST_CHANGE && total != bestTotal) {
+            return total < bestTotal;
+        }
+        return inputs != bestInputs ? inputs < bestInputs : total < bestTotal;
+    }
+
+    private static Party notaryOf(MyCashIndex.Spendable candidates, int index) {
+        return candidates.states.get(index).getState().getNotary();
+    }
+}
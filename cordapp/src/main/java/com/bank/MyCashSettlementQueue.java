@@ -0,0 +1,156 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deferred settlement: transfers from this node are queued instead of settled one transaction each, and every flush
+ * pays all of them with one MultiPayeeTransferMyCash per currency, see SettleMyCashQueue. Each transfer waits at most
+ * one flush period, in exchange the notary sees one transaction per batch instead of one per transfer.
+ *
+ * The queue is flushed every com.bank.settlement.flushMillis milliseconds (default 1000, 0 turns the timer off) and as
+ * soon as com.bank.settlement.flushIntents transfers (default SettleMyCashQueue.DEFAULT_MAX_INTENTS) are waiting,
+ * which is also the most one flush settles. Transfers a settlement flow claimed but never recorded an outcome for are
+ * failed after com.bank.settlement.staleMillis (default SettleMyCashQueue.DEFAULT_STALE_MILLIS).
+ *
+ * Queued transfers are rows of MyCashSettlementSchemaV1, so they survive a restart and go with the first flush after
+ * it. submit's future is kept in memory only; RPC clients, and anyone after a restart, wait with
+ * MyCashQueuedTransferFeed instead. Transfers queued over RPC with QueueMyCashTransfer are flushed the same way.
+ */
+@CordaService
+public class MyCashSettlementQueue extends SingletonSerializeAsToken {
+    private final static Logger logger = LoggerFactory.getLogger(MyCashSettlementQueue.class);
+
+    public static final String FLUSH_MILLIS_PROPERTY = "com.bank.settlement.flushMillis";
+    public static final String FLUSH_INTENTS_PROPERTY = "com.bank.settlement.flushIntents";
+    public static final String STALE_MILLIS_PROPERTY = "com.bank.settlement.staleMillis";
+    // Flushes that may miss a queued transfer before it is taken for rolled back, see queued.
+    private static final int MAX_MISSES = 3;
+
+    private final AppServiceHub serviceHub;
+    private final long flushMillis;
+    private final int flushIntents;
+    private final long staleMillis;
+    // Flushes run one at a time on this thread, the timer's and those started by a full queue alike.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "mycash-settlement");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<UUID, CompletableFuture<SecureHash>> waiting = new ConcurrentHashMap<>();
+    // Queued since the last flush that found them, with the number of flushes that did not.
+    private final Map<UUID, Integer> announced = new ConcurrentHashMap<>();
+    // Not known after a restart, so the first flush looks for transfers left in the queue.
+    private volatile boolean leftovers = true;
+    // When a flush that failed may have left claimed transfers behind, which are looked for from then on.
+    private volatile long staleCheckAt = Long.MAX_VALUE;
+
+    public MyCashSettlementQueue(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.flushMillis = Long.getLong(FLUSH_MILLIS_PROPERTY, 1000);
+        this.flushIntents = Integer.getInteger(FLUSH_INTENTS_PROPERTY, MyCashFlows.SettleMyCashQueue.DEFAULT_MAX_INTENTS);
+        this.staleMillis = Long.getLong(STALE_MILLIS_PROPERTY, MyCashFlows.SettleMyCashQueue.DEFAULT_STALE_MILLIS);
+        if (flushMillis > 0) {
+            executor.scheduleWithFixedDelay(this::flushIfQueued, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queues a payment of amount to payee. The future completes with the id of the transaction that settled it, or
+     * with the FlowException that failed it.
+     */
+    public CompletableFuture<SecureHash> submit(Party payee, Amount<Currency> amount) {
+        final UUID id = UUID.randomUUID();
+        final CompletableFuture<SecureHash> settled = new CompletableFuture<>();
+        waiting.put(id, settled);
+        serviceHub.startFlow(new MyCashFlows.QueueMyCashTransfer(id, payee, amount)).getReturnValue().then(queuing -> {
+            try {
+                queuing.get();
+            } catch (Exception e) {
+                waiting.remove(id);
+                settled.completeExceptionally(e.getCause() == null ? e : e.getCause());
+            }
+            return null;
+        });
+        return settled;
+    }
+
+    /* --- Called by QueueMyCashTransfer before its row is committed, so a flush may not find it yet. It stays
+       announced until a flush does, or MAX_MISSES flushes did not and its flow must have rolled back. A full queue
+       is flushed without waiting for the timer --- */
+    void queued(UUID id) {
+        announced.put(id, 0);
+        if (announced.size() >= flushIntents) {
+            executor.execute(this::flush);
+        }
+    }
+
+    /* --- Called by SettleMyCashQueue with what it settled, failed or found stale, whoever started it --- */
+    void completed(List<MyCashQueuedTransfer> outcomes) {
+        for (MyCashQueuedTransfer outcome : outcomes) {
+            announced.remove(outcome.getId());
+            final CompletableFuture<SecureHash> settled = waiting.remove(outcome.getId());
+            if (settled == null) {
+                continue;
+            }
+            if (outcome.getStatus() == MyCashQueuedTransfer.Status.SETTLED) {
+                settled.complete(outcome.getTxId());
+            } else {
+                settled.completeExceptionally(new FlowException(outcome.getError()));
+            }
+        }
+    }
+
+    private void flushIfQueued() {
+        if (leftovers || !announced.isEmpty() || System.currentTimeMillis() >= staleCheckAt) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        final List<UUID> before = new ArrayList<>(announced.keySet());
+        final List<MyCashQueuedTransfer> outcomes;
+        try {
+            outcomes = serviceHub.startFlow(new MyCashFlows.SettleMyCashQueue(flushIntents, staleMillis)).getReturnValue().get();
+        } catch (Exception e) {
+            logger.warn("Flushing the settlement queue failed", e);
+            //whatever it had claimed is failed by the first flush once it is stale
+            staleCheckAt = Math.min(staleCheckAt, System.currentTimeMillis() + staleMillis);
+            return;
+        }
+        if (System.currentTimeMillis() >= staleCheckAt) {
+            staleCheckAt = Long.MAX_VALUE;
+        }
+
+        //a full flush may have left more behind, those are no misses
+        final boolean full = outcomes.size() >= flushIntents;
+        leftovers = full;
+        if (!full) {
+            for (UUID id : before) {
+                announced.computeIfPresent(id, (key, misses) -> misses + 1 >= MAX_MISSES ? null : misses + 1);
+            }
+        }
+        if (full) {
+            executor.execute(this::flush);
+        }
+    }
+}
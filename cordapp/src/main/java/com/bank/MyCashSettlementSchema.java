@@ -0,0 +1,8 @@
+package com.bank;
+
+/**
+ * The family of schemas of the deferred settlement queue, see MyCashSettlementQueue. Each version is a MappedSchema
+ * of this family.
+ */
+public class MyCashSettlementSchema {
+}
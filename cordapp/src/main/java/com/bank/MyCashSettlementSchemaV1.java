@@ -0,0 +1,96 @@
+package com.bank;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * First version of the deferred settlement queue schema. Every queued transfer gets one row, which the node creates
+ * the table for like any other CorDapp schema. Rows are read and written with plain SQL by MyCashSettlementStore.
+ */
+public class MyCashSettlementSchemaV1 extends MappedSchema {
+
+    public MyCashSettlementSchemaV1() {
+        super(MyCashSettlementSchema.class, 1, ImmutableList.of(PersistentTransferIntent.class));
+    }
+
+    @Entity
+    @Table(name = "my_cash_transfer_intents", indexes = {
+            @Index(name = "my_cash_intent_status_idx", columnList = "status,submitted_at")
+    })
+    public static class PersistentTransferIntent {
+        @Id
+        @Column(name = "intent_id", length = 36, nullable = false)
+        private final String intentId;
+        @Column(name = "payee_name", nullable = false)
+        private final String payeeName;
+        @Column(name = "currency", length = 3, nullable = false)
+        private final String currency;
+        @Column(name = "quantity", nullable = false)
+        private final long quantity;
+        @Column(name = "status", length = 16, nullable = false)
+        private final String status;
+        @Column(name = "submitted_at", nullable = false)
+        private final long submittedAt;
+        @Column(name = "claimed_at")
+        private final Long claimedAt;
+        @Column(name = "tx_id", length = 64)
+        private final String txId;
+        @Column(name = "error", length = 1024)
+        private final String error;
+
+        // Default constructor required by hibernate.
+        public PersistentTransferIntent() {
+            this.intentId = null;
+            this.payeeName = null;
+            this.currency = null;
+            this.quantity = 0;
+            this.status = null;
+            this.submittedAt = 0;
+            this.claimedAt = null;
+            this.txId = null;
+            this.error = null;
+        }
+
+        public String getIntentId() {
+            return intentId;
+        }
+
+        public String getPayeeName() {
+            return payeeName;
+        }
+
+        public String getCurrency() {
+            return currency;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public Long getClaimedAt() {
+            return claimedAt;
+        }
+
+        public String getTxId() {
+            return txId;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
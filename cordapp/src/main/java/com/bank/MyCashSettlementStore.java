@@ -0,0 +1,198 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.node.services.TransactionStorage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The rows of MyCashSettlementSchemaV1, read and written on the JDBC connection of the calling flow's transaction.
+ * Take a new store after every suspension, the connection belongs to the transaction it was taken in.
+ */
+class MyCashSettlementStore {
+    private static final String COLUMNS = "intent_id, payee_name, currency, quantity, status, tx_id, error";
+    private static final String STALE_ERROR = "The settlement of this transfer ended before its transaction was signed.";
+    private static final String UNKNOWN_ERROR = "The settlement of this transfer ended without an outcome after "
+            + "transaction %s was signed. Check whether the payee received it before queueing the transfer again.";
+
+    private final Connection connection;
+
+    MyCashSettlementStore(Connection connection) {
+        this.connection = connection;
+    }
+
+    void insert(UUID id, CordaX500Name payee, Amount<Currency> amount) throws FlowException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO my_cash_transfer_intents "
+                + "(intent_id, payee_name, currency, quantity, status, submitted_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, id.toString());
+            insert.setString(2, payee.toString());
+            insert.setString(3, amount.getToken().getCurrencyCode());
+            insert.setLong(4, amount.getQuantity());
+            insert.setString(5, MyCashQueuedTransfer.Status.PENDING.name());
+            insert.setLong(6, System.currentTimeMillis());
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            throw failed("queueing", e);
+        }
+    }
+
+    /* --- The oldest max PENDING rows turned SETTLING. A row another flush claimed first fails the status check of
+       the update and is skipped, so two flushes never settle the same transfer --- */
+    List<MyCashQueuedTransfer> claimPending(int max) throws FlowException {
+        final List<MyCashQueuedTransfer> pending = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement("SELECT " + COLUMNS + " FROM my_cash_transfer_intents "
+                + "WHERE status = ? ORDER BY submitted_at, intent_id")) {
+            select.setString(1, MyCashQueuedTransfer.Status.PENDING.name());
+            select.setMaxRows(max);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    pending.add(read(rows));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("reading", e);
+        }
+
+        final List<MyCashQueuedTransfer> claimed = new ArrayList<>(pending.size());
+        try (PreparedStatement claim = connection.prepareStatement("UPDATE my_cash_transfer_intents SET status = ?, claimed_at = ? "
+                + "WHERE intent_id = ? AND status = ?")) {
+            final long now = System.currentTimeMillis();
+            for (MyCashQueuedTransfer transfer : pending) {
+                claim.setString(1, MyCashQueuedTransfer.Status.SETTLING.name());
+                claim.setLong(2, now);
+                claim.setString(3, transfer.getId().toString());
+                claim.setString(4, MyCashQueuedTransfer.Status.PENDING.name());
+                if (claim.executeUpdate() == 1) {
+                    claimed.add(new MyCashQueuedTransfer(transfer.getId(), transfer.getPayee(), transfer.getAmount(),
+                            MyCashQueuedTransfer.Status.SETTLING, null, null));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("claiming", e);
+        }
+        return claimed;
+    }
+
+    /* --- what an UNKNOWN transfer settling with txId reports --- */
+    static String unknownOutcome(SecureHash txId) {
+        return String.format(UNKNOWN_ERROR, txId);
+    }
+
+    /* --- The transaction that will settle the SETTLING rows ids, stored before it goes to the notary --- */
+    void settlingWith(List<UUID> ids, SecureHash txId) throws FlowException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE my_cash_transfer_intents SET tx_id = ? "
+                + "WHERE intent_id = ? AND status = ?")) {
+            for (UUID id : ids) {
+                update.setString(1, txId.toString());
+                update.setString(2, id.toString());
+                update.setString(3, MyCashQueuedTransfer.Status.SETTLING.name());
+                update.addBatch();
+            }
+            update.executeBatch();
+        } catch (SQLException e) {
+            throw failed("recording", e);
+        }
+    }
+
+    /* --- Rows left SETTLING since before claimedBefore, whose flow ended without recording an outcome, get one from
+       their transaction: SETTLED when recorded has it, FAILED when none was signed yet, UNKNOWN when one was signed
+       but not recorded, it may still have been notarised. None of them is queued again --- */
+    List<MyCashQueuedTransfer> recoverStale(long claimedBefore, TransactionStorage recorded) throws FlowException {
+        final List<MyCashQueuedTransfer> stale = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement("SELECT " + COLUMNS + " FROM my_cash_transfer_intents "
+                + "WHERE status = ? AND claimed_at < ?")) {
+            select.setString(1, MyCashQueuedTransfer.Status.SETTLING.name());
+            select.setLong(2, claimedBefore);
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    final MyCashQueuedTransfer transfer = read(rows);
+                    final SecureHash txId = transfer.getTxId();
+                    if (txId == null) {
+                        stale.add(transfer.failed(STALE_ERROR));
+                    } else if (recorded.getTransaction(txId) != null) {
+                        stale.add(transfer.settled(txId));
+                    } else {
+                        stale.add(transfer.unknown(txId, unknownOutcome(txId)));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("reading", e);
+        }
+
+        final List<MyCashQueuedTransfer> recovered = new ArrayList<>(stale.size());
+        try (PreparedStatement update = connection.prepareStatement("UPDATE my_cash_transfer_intents SET status = ?, error = ? "
+                + "WHERE intent_id = ? AND status = ?")) {
+            for (MyCashQueuedTransfer transfer : stale) {
+                update.setString(1, transfer.getStatus().name());
+                update.setString(2, transfer.getError());
+                update.setString(3, transfer.getId().toString());
+                update.setString(4, MyCashQueuedTransfer.Status.SETTLING.name());
+                if (update.executeUpdate() == 1) {
+                    recovered.add(transfer);
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("recovering", e);
+        }
+        return recovered;
+    }
+
+    void finish(List<MyCashQueuedTransfer> transfers) throws FlowException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE my_cash_transfer_intents "
+                + "SET status = ?, tx_id = ?, error = ? WHERE intent_id = ?")) {
+            for (MyCashQueuedTransfer transfer : transfers) {
+                update.setString(1, transfer.getStatus().name());
+                update.setString(2, transfer.getTxId() == null ? null : transfer.getTxId().toString());
+                update.setString(3, truncate(transfer.getError()));
+                update.setString(4, transfer.getId().toString());
+                update.addBatch();
+            }
+            update.executeBatch();
+        } catch (SQLException e) {
+            throw failed("recording", e);
+        }
+    }
+
+    /* --- null when no transfer was ever queued with id --- */
+    MyCashQueuedTransfer find(UUID id) throws FlowException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT " + COLUMNS + " FROM my_cash_transfer_intents "
+                + "WHERE intent_id = ?")) {
+            select.setString(1, id.toString());
+            try (ResultSet rows = select.executeQuery()) {
+                return rows.next() ? read(rows) : null;
+            }
+        } catch (SQLException e) {
+            throw failed("reading", e);
+        }
+    }
+
+    private static MyCashQueuedTransfer read(ResultSet row) throws SQLException {
+        final String txId = row.getString("tx_id");
+        return new MyCashQueuedTransfer(
+                UUID.fromString(row.getString("intent_id")),
+                CordaX500Name.parse(row.getString("payee_name")),
+                new Amount<>(row.getLong("quantity"), Currency.getInstance(row.getString("currency"))),
+                MyCashQueuedTransfer.Status.valueOf(row.getString("status")),
+                txId == null ? null : SecureHash.parse(txId),
+                row.getString("error"));
+    }
+
+    private static String truncate(String error) {
+        return error == null || error.length() <= 1024 ? error : error.substring(0, 1024);
+    }
+
+    private static FlowException failed(String what, SQLException e) {
+        return new FlowException(String.format("The settlement queue failed %s transfers: %s", what, e.getMessage()), e);
+    }
+}
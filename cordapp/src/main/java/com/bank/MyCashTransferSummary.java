@@ -0,0 +1,116 @@
+package com.bank;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * What a transfer looks like from one payee's side: its size, its currencies and what it pays the payee.
+ *
+ * The initiator sends it ahead of the transaction, so the payee can turn down a transfer it would never sign before
+ * resolving any dependency. It is only a claim; the payee rebuilds it from the real transaction before signing.
+ */
+@CordaSerializable
+public class MyCashTransferSummary {
+    private final SecureHash txId;
+    private final int inputCount;
+    private final int outputCount;
+    private final int txBytes;
+    private final List<Currency> currencies;
+    private final Amount<Currency> paidToYou;
+
+    public MyCashTransferSummary(SecureHash txId, int inputCount, int outputCount, int txBytes,
+                                 List<Currency> currencies, Amount<Currency> paidToYou) {
+        this.txId = txId;
+        this.inputCount = inputCount;
+        this.outputCount = outputCount;
+        this.txBytes = txBytes;
+        this.currencies = currencies;
+        this.paidToYou = paidToYou;
+    }
+
+    /**
+     * Summarises stx for payee. paidToYou is null when no output goes to the payee.
+     */
+    public static MyCashTransferSummary of(SignedTransaction stx, AbstractParty payee) {
+        final WireTransaction tx = stx.getTx();
+        final List<Currency> currencies = new ArrayList<>();
+        Amount<Currency> paidToYou = null;
+        for (TransactionState<ContractState> output : tx.getOutputs()) {
+            if (!(output.getData() instanceof MyCashState)) {
+                continue;
+            }
+            final MyCashState cash = (MyCashState) output.getData();
+            if (!currencies.contains(cash.getAmount().getToken())) {
+                currencies.add(cash.getAmount().getToken());
+            }
+            if (payee.equals(cash.getOwner())) {
+                paidToYou = paidToYou == null ? cash.getAmount() : paidToYou.plus(cash.getAmount());
+            }
+        }
+        return new MyCashTransferSummary(stx.getId(), tx.getInputs().size(), tx.getOutputs().size(),
+                stx.getTxBits().getSize(), currencies, paidToYou);
+    }
+
+    public SecureHash getTxId() {
+        return txId;
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    public int getTxBytes() {
+        return txBytes;
+    }
+
+    public List<Currency> getCurrencies() {
+        return currencies;
+    }
+
+    public Amount<Currency> getPaidToYou() {
+        return paidToYou;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final MyCashTransferSummary that = (MyCashTransferSummary) o;
+        return inputCount == that.inputCount
+                && outputCount == that.outputCount
+                && txBytes == that.txBytes
+                && Objects.equals(txId, that.txId)
+                && Objects.equals(currencies, that.currencies)
+                && Objects.equals(paidToYou, that.paidToYou);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(txId, inputCount, outputCount, txBytes, currencies, paidToYou);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MyCashTransferSummary(txId=%s, inputs=%d, outputs=%d, bytes=%d, currencies=%s, paidToYou=%s)",
+                txId, inputCount, outputCount, txBytes, currencies, paidToYou);
+    }
+}
@@ -0,0 +1,112 @@
+package com.bank;
+
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks the notary of new MyCashStates, so issuance is spread over every notary of the network instead of piling up
+ * on the first one. The policy is the node's system property com.bank.notary.policy:
+ * - ROUND_ROBIN, the default: each selection takes the next notary.
+ * - LATENCY_WEIGHTED: a random notary, weighted by the inverse of its average FinalityFlow time as seen by this
+ *   node. Notaries not yet measured weigh as much as the fastest one, so they get measured.
+ * - OWNER_HASH: always the same notary for the same owner key, which keeps an owner's cash on one notary.
+ *
+ * Notaries are ordered by name, so OWNER_HASH gives the same answer on every node that sees the same notaries.
+ */
+@CordaService
+public class NotarySelector extends SingletonSerializeAsToken {
+    public static final String POLICY_PROPERTY = "com.bank.notary.policy";
+
+    public enum Policy {
+        ROUND_ROBIN, LATENCY_WEIGHTED, OWNER_HASH
+    }
+
+    // Weight of a new FinalityFlow time in the moving average.
+    private static final double SMOOTHING = 0.2;
+
+    private final AppServiceHub serviceHub;
+    private final Policy policy;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<Party, Double> averageNanos = new ConcurrentHashMap<>();
+
+    public NotarySelector(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        this.policy = Policy.valueOf(System.getProperty(POLICY_PROPERTY, Policy.ROUND_ROBIN.name()).trim().toUpperCase());
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * The notary for a new state of owner, or null when the network has no notary.
+     */
+    public Party select(AbstractParty owner) {
+        final List<Party> notaries = new ArrayList<>(serviceHub.getNetworkMapCache().getNotaryIdentities());
+        if (notaries.isEmpty()) {
+            return null;
+        }
+        if (notaries.size() == 1) {
+            return notaries.get(0);
+        }
+        notaries.sort(Comparator.comparing(notary -> notary.getName().toString()));
+
+        switch (policy) {
+            case OWNER_HASH:
+                return notaries.get(Math.floorMod(Arrays.hashCode(owner.getOwningKey().getEncoded()), notaries.size()));
+            case LATENCY_WEIGHTED:
+                return byLatency(notaries);
+            default:
+                return notaries.get(Math.floorMod(next.getAndIncrement(), notaries.size()));
+        }
+    }
+
+    /**
+     * Feeds the LATENCY_WEIGHTED policy with how long a FinalityFlow on notary took.
+     */
+    public void recordFinality(Party notary, long nanos) {
+        if (notary == null || nanos < 0) {
+            return;
+        }
+        averageNanos.merge(notary, (double) nanos, (average, sample) -> average + SMOOTHING * (sample - average));
+    }
+
+    private Party byLatency(List<Party> notaries) {
+        double fastest = Double.MAX_VALUE;
+        for (Party notary : notaries) {
+            final Double average = averageNanos.get(notary);
+            if (average != null) {
+                fastest = Math.min(fastest, average);
+            }
+        }
+
+        final double[] weights = new double[notaries.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; ++i) {
+            final Double average = averageNanos.get(notaries.get(i));
+            weights[i] = average == null || fastest == Double.MAX_VALUE ? 1.0 : fastest / Math.max(1.0, average);
+            total += weights[i];
+        }
+
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; ++i) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return notaries.get(i);
+            }
+        }
+        return notaries.get(notaries.size() - 1);
+    }
+}
@@ -0,0 +1,60 @@
+package com.bank;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class CashSelectionStrategyTests {
+
+    //candidates in the order they were recorded in the vault, oldest first
+    private final long[] quantities = {500, 300, 200, 1000, 700};
+
+    private int[] choose(CashSelectionStrategy strategy, long target) {
+        final int[] chosen = strategy.choose(quantities, quantities.length, target);
+        if (chosen != null) {
+            Arrays.sort(chosen);
+        }
+        return chosen;
+    }
+
+    /* ---------Fewest inputs takes the largest states first ---------------------------------------------*/
+    @Test
+    public void fewestInputsTakesLargestStatesFirst() {
+        assertArrayEquals(new int[]{3}, choose(CashSelectionStrategy.FEWEST_INPUTS, 900));
+        assertArrayEquals(new int[]{3, 4}, choose(CashSelectionStrategy.FEWEST_INPUTS, 1500));
+    }
+
+    /* ---------Smallest change prefers an exact combination, then the smallest covering state ----------*/
+    @Test
+    public void smallestChangePrefersExactCombination() {
+        assertArrayEquals(new int[]{0}, choose(CashSelectionStrategy.SMALLEST_CHANGE, 500));
+        assertArrayEquals(new int[]{2, 3}, choose(CashSelectionStrategy.SMALLEST_CHANGE, 1001));
+        assertArrayEquals(new int[]{4}, choose(CashSelectionStrategy.SMALLEST_CHANGE, 650));
+    }
+
+    @Test
+    public void smallestChangeComparesCombinations() {
+        final long[] small = {300, 300, 50};
+        final int[] chosen = CashSelectionStrategy.SMALLEST_CHANGE.choose(small, small.length, 590);
+        Arrays.sort(chosen);
+        assertArrayEquals(new int[]{0, 1}, chosen);
+    }
+
+    /* ---------Oldest first follows the recorded order -------------------------------------------------*/
+    @Test
+    public void oldestFirstFollowsRecordedOrder() {
+        assertArrayEquals(new int[]{0, 1, 2}, choose(CashSelectionStrategy.OLDEST_FIRST, 900));
+    }
+
+    /* ---------No strategy can cover more than the sum of the candidates ------------------------------*/
+    @Test
+    public void insufficientCashSelectsNothing() {
+        for (CashSelectionStrategy strategy : CashSelectionStrategy.values()) {
+            assertNull(choose(strategy, 2701));
+        }
+    }
+}
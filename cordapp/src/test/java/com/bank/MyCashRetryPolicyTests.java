@@ -0,0 +1,29 @@
+package com.bank;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class MyCashRetryPolicyTests {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty(MyCashRetryPolicy.MAX_ATTEMPTS_PROPERTY);
+    }
+
+    /* ---------Attempts stop at the configured maximum, one attempt turns retrying off ------------------*/
+    @Test
+    public void attemptsStopAtTheMaximum() {
+        System.setProperty(MyCashRetryPolicy.MAX_ATTEMPTS_PROPERTY, "3");
+        final MyCashRetryPolicy policy = new MyCashRetryPolicy();
+        assertTrue(policy.allowsAnotherAfter(1));
+        assertTrue(policy.allowsAnotherAfter(2));
+        assertFalse(policy.allowsAnotherAfter(3));
+
+        System.setProperty(MyCashRetryPolicy.MAX_ATTEMPTS_PROPERTY, "1");
+        assertFalse(new MyCashRetryPolicy().allowsAnotherAfter(1));
+    }
+}
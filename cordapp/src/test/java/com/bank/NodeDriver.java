@@ -4,6 +4,8 @@ import com.google.common.collect.ImmutableList;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.testing.driver.DriverParameters;
 import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
 import net.corda.testing.node.User;
 import com.google.common.collect.ImmutableSet;
 
@@ -20,7 +22,12 @@ public class NodeDriver {
         final List<User> rpcUsers =
                 ImmutableList.of(new User("user1", "test", ImmutableSet.of("ALL")));
 
-        driver(new DriverParameters().withStartNodesInProcess(true).withWaitForAllNodesToFinish(true), dsl -> {
+        // Two notaries, so NotarySelector has something to spread new cash over.
+        final List<NotarySpec> notaries = ImmutableList.of(
+                new NotarySpec(new CordaX500Name("Notary1", "London", "GB"), false, ImmutableList.of(), VerifierType.InMemory, null),
+                new NotarySpec(new CordaX500Name("Notary2", "London", "GB"), false, ImmutableList.of(), VerifierType.InMemory, null));
+
+        driver(new DriverParameters().withStartNodesInProcess(true).withWaitForAllNodesToFinish(true).withNotarySpecs(notaries), dsl -> {
                     try {
                         dsl.startNode(new NodeParameters()
                                 .withProvidedName(new CordaX500Name("Bank", "London", "GB"))
@@ -1,10 +1,14 @@
 package com.bank.contract;
 
 import com.bank.MyCashContract;
+import com.bank.MyCashState;
 import com.google.common.collect.ImmutableList;
+import net.corda.core.crypto.NullKeys;
 import org.junit.Test;
 
 import static com.bank.MyCashContract.ID;
+import static net.corda.finance.Currencies.DOLLARS;
+import static net.corda.finance.Currencies.POUNDS;
 import static net.corda.testing.node.NodeTestUtils.ledger;
 
 
@@ -215,4 +219,54 @@ public class MyCashContractTransferTests extends MyCashContractUnitTests {
         }));
     }
 
-}
\ No newline at end of file
+    /* ---------Each currency must balance on its own -----------------------------------------*/
+    @Test
+    public void inputsAndOutputsBalancePerCurrency() {
+        final MyCashState onePoundCash = new MyCashState(POUNDS(1), bank.getParty(), alice.getParty());
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(ID, oneDollarCash);
+                tx.output(ID, onePoundCash.withNewOwner(bob.getParty()));
+                tx.command(ImmutableList.of(alice.getPublicKey(), bob.getPublicKey()), new MyCashContract.Commands.TransferCash());
+                tx.failsWith("In a cash transfer transaction sum of cash inputs should be equal to sum of cash outputs");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(ID, oneDollarCash);
+                tx.input(ID, onePoundCash);
+                tx.output(ID, onePoundCash.withNewOwner(bob.getParty()));
+                tx.output(ID, oneDollarCash.withNewOwner(bob.getParty()));
+                tx.command(ImmutableList.of(alice.getPublicKey(), bob.getPublicKey()), new MyCashContract.Commands.TransferCash());
+                tx.verifies();
+                return null;
+            });
+            return null;
+
+        }));
+    }
+
+    /* ---------A transfer moves cash between owners, it cannot strip the bank or hand the cash to another ------*/
+    @Test
+    public void transferMustKeepTheBank() {
+        final MyCashState bankless = new MyCashState(DOLLARS(1), NullKeys.INSTANCE.getNULL_PARTY(), alice.getParty());
+        final MyCashState otherBank = new MyCashState(DOLLARS(1), charlie.getParty(), alice.getParty());
+        ledger(ledgerServices, (ledger -> {
+            ledger.transaction(tx -> {
+                tx.input(ID, oneDollarCash);
+                tx.output(ID, bankless);
+                tx.command(ImmutableList.of(alice.getPublicKey()), new MyCashContract.Commands.TransferCash());
+                tx.failsWith("In a cash transfer transaction sum of cash inputs should be equal to sum of cash outputs");
+                return null;
+            });
+            ledger.transaction(tx -> {
+                tx.input(ID, oneDollarCash);
+                tx.output(ID, otherBank);
+                tx.command(ImmutableList.of(alice.getPublicKey()), new MyCashContract.Commands.TransferCash());
+                tx.failsWith("In a cash transfer transaction sum of cash inputs should be equal to sum of cash outputs");
+                return null;
+            });
+            return null;
+        }));
+    }
+
+}
@@ -1,16 +1,77 @@
 package com.bank.flow;
 
-public class FlowTests {
-/*
-    private final MockNetwork network = new MockNetwork(ImmutableList.of("com.bank"));
-    private final StartedMockNode a = network.createNode();
-    private final StartedMockNode b = network.createNode();
+import co.paralleluniverse.fibers.Suspendable;
+import com.bank.MyCashBalance;
+import com.bank.MyCashBulkIssueReport;
+import com.bank.MyCashContract;
+import com.bank.MyCashConsolidationReport;
+import com.bank.MyCashFlows;
+import com.bank.MyCashIndex;
+import com.bank.MyCashIssuance;
+import com.bank.MyCashMetrics;
+import com.bank.MyCashNettingReport;
+import com.bank.MyCashObligation;
+import com.bank.MyCashPayment;
+import com.bank.MyCashQueuedTransfer;
+import com.bank.MyCashQueries;
+import com.bank.MyCashRetryPolicy;
+import com.bank.MyCashSelection;
+import com.bank.MyCashSettlementQueue;
+import com.bank.MyCashState;
+import com.bank.MyCashTransferSummary;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.CollectSignaturesFlow;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.NotaryError;
+import net.corda.core.flows.NotaryException;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
-    public FlowTests() {
-        a.registerInitiatedFlow(Responder.class);
-        b.registerInitiatedFlow(Responder.class);
+import static net.corda.finance.Currencies.DOLLARS;
+import static net.corda.finance.Currencies.POUNDS;
+import static net.corda.finance.Currencies.USD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlowTests {
+    static {
+        //the settlement queue is flushed by the tests themselves
+        System.setProperty(MyCashSettlementQueue.FLUSH_MILLIS_PROPERTY, "0");
     }
 
+    private final MockNetwork network = new MockNetwork(ImmutableList.of("com.bank"));
+    private final StartedMockNode bank = network.createPartyNode(new CordaX500Name("Bank", "London", "GB"));
+    private final StartedMockNode ownerA = network.createPartyNode(new CordaX500Name("OwnerA", "London", "GB"));
+    private final StartedMockNode ownerB = network.createPartyNode(new CordaX500Name("OwnerB", "New York", "US"));
+
     @Before
     public void setup() {
         network.runNetwork();
@@ -21,9 +82,510 @@ public class FlowTests {
         network.stopNodes();
     }
 
+    private static Party identityOf(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    private static List<StateAndRef<MyCashState>> cashOf(StartedMockNode node) {
+        return node.transaction(() -> node.getServices().getVaultService().queryBy(MyCashState.class).getStates());
+    }
+
+    private MyCashObligation record(StartedMockNode payer, StartedMockNode payee, Amount<Currency> amount) throws Exception {
+        final CordaFuture<MyCashObligation> future = payer.startFlow(new MyCashFlows.RecordMyCashObligation(identityOf(payee), amount));
+        network.runNetwork();
+        return future.get();
+    }
+
+    /* ---------Bulk issuance is split into chunks and every owner receives its cash --------------------*/
+    @Test
+    public void bulkIssuanceIsChunkedAndReachesEveryOwner() throws Exception {
+        final List<MyCashIssuance> issuances = ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(10)),
+                new MyCashIssuance(identityOf(ownerB), DOLLARS(20)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(30)),
+                new MyCashIssuance(identityOf(ownerB), DOLLARS(40)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(50)));
+
+        final CordaFuture<MyCashBulkIssueReport> future = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(issuances, 2));
+        network.runNetwork();
+        final MyCashBulkIssueReport report = future.get();
+
+        assertEquals(3, report.getChunks().size());
+        assertEquals(5, report.getStatesIssued());
+        assertEquals(3, cashOf(ownerA).size());
+        assertEquals(2, cashOf(ownerB).size());
+    }
+
+    /* ---------One transaction pays every payee and leaves a single change output --------------------*/
+    @Test
+    public void multiPayeeTransferPaysEveryoneInOneTransaction() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+
+        final CordaFuture<SignedTransaction> transfer = bank.startFlow(new MyCashFlows.MultiPayeeTransferMyCash(ImmutableList.of(
+                new MyCashPayment(identityOf(ownerA), DOLLARS(10)),
+                new MyCashPayment(identityOf(ownerB), DOLLARS(20)),
+                new MyCashPayment(identityOf(ownerA), DOLLARS(5)))));
+        network.runNetwork();
+        final SignedTransaction tx = transfer.get();
+
+        assertEquals(4, tx.getTx().getOutputs().size());
+        assertEquals(2, cashOf(ownerA).size());
+        assertEquals(1, cashOf(ownerB).size());
+        assertEquals(DOLLARS(65), cashOf(bank).get(0).getState().getData().getAmount());
+    }
+
+    /* ---------Cash of two banks is paid and changed per bank, none of it loses its bank -----------------------*/
+    @Test
+    public void transferOfMixedBanksKeepsEachBank() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> fromBank = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(10)))));
+        network.runNetwork();
+        fromBank.get();
+        final CordaFuture<MyCashBulkIssueReport> fromOwnerB = ownerB.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(10)))));
+        network.runNetwork();
+        fromOwnerB.get();
+
+        final CordaFuture<SignedTransaction> transfer = ownerA.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerB), DOLLARS(15)));
+        network.runNetwork();
+        final SignedTransaction tx = transfer.get();
+
+        final Map<AbstractParty, Long> outputs = new HashMap<>();
+        for (MyCashState output : tx.getTx().outputsOfType(MyCashState.class)) {
+            outputs.merge(output.getBank(), output.getAmount().getQuantity(), Long::sum);
+        }
+        assertEquals(ImmutableMap.of(identityOf(bank), DOLLARS(10).getQuantity(), identityOf(ownerB), DOLLARS(10).getQuantity()), outputs);
+    }
+
+    /* ---------Owner, amount and ordering are answered from the MyCashSchemaV1 columns -----------------*/
+    @Test
+    public void customColumnCriteriaFilterAndSortByQuantity() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> future = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(10)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(50)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(30)),
+                new MyCashIssuance(identityOf(ownerB), DOLLARS(40)))));
+        network.runNetwork();
+        future.get();
+
+        final QueryCriteria criteria = MyCashQueries.ownedByInCurrency(identityOf(ownerA), USD)
+                .and(MyCashQueries.quantityAtLeast(DOLLARS(30).getQuantity()));
+        final List<StateAndRef<MyCashState>> states = ownerA.transaction(() -> ownerA.getServices().getVaultService()
+                .queryBy(MyCashState.class, criteria, MyCashQueries.BY_QUANTITY_DESCENDING).getStates());
+
+        assertEquals(2, states.size());
+        assertEquals(DOLLARS(50), states.get(0).getState().getData().getAmount());
+        assertEquals(DOLLARS(30), states.get(1).getState().getData().getAmount());
+    }
+
+    /* ---------Balances are summed per owner and currency by the vault of the node asked, largest first -----*/
+    @Test
+    public void balanceFlowSumsPerOwnerAndCurrency() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(10)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(15)),
+                new MyCashIssuance(identityOf(ownerA), POUNDS(40)),
+                new MyCashIssuance(identityOf(ownerB), DOLLARS(40)))));
+        network.runNetwork();
+        issue.get();
+
+        final CordaFuture<List<MyCashBalance>> ofA = ownerA.startFlow(new MyCashFlows.MyCashBalanceFlow());
+        network.runNetwork();
+        final List<MyCashBalance> balances = ofA.get();
+
+        assertEquals(2, balances.size());
+        assertEquals(identityOf(ownerA).getName(), balances.get(0).getOwner());
+        assertEquals(POUNDS(40), balances.get(0).getAmount());
+        assertEquals(identityOf(ownerA).getName(), balances.get(1).getOwner());
+        assertEquals(DOLLARS(25), balances.get(1).getAmount());
+
+        final CordaFuture<List<MyCashBalance>> ofB = ownerB.startFlow(new MyCashFlows.MyCashBalanceFlow(identityOf(ownerB)));
+        network.runNetwork();
+        assertEquals(1, ofB.get().size());
+        assertEquals(DOLLARS(40), ofB.get().get(0).getAmount());
+
+        //only the owners are participants, so neither the bank nor another owner holds anything to sum
+        final CordaFuture<List<MyCashBalance>> ofBAtA = ownerA.startFlow(new MyCashFlows.MyCashBalanceFlow(identityOf(ownerB)));
+        final CordaFuture<List<MyCashBalance>> atBank = bank.startFlow(new MyCashFlows.MyCashBalanceFlow());
+        network.runNetwork();
+        assertTrue(ofBAtA.get().isEmpty());
+        assertTrue(atBank.get().isEmpty());
+    }
+
+    /* ---------Consolidation merges the smallest states into one and reports the drop -----------------*/
+    @Test
+    public void consolidationMergesSmallestStates() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(1)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(2)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(3)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(40)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(50)))));
+        network.runNetwork();
+        issue.get();
+
+        final CordaFuture<MyCashConsolidationReport> future = ownerA.startFlow(new MyCashFlows.ConsolidateMyCash(USD, 3));
+        network.runNetwork();
+        final MyCashConsolidationReport report = future.get();
+
+        assertEquals(5, report.getStatesBefore());
+        assertEquals(3, report.getStatesMerged());
+        assertEquals(3, report.getStatesAfter());
+        assertEquals(DOLLARS(6), report.getMergedAmount());
+        assertEquals(3, cashOf(ownerA).size());
+    }
+
+    /* ---------Every progress step and the whole flow are timed per flow class -----------------------*/
+    @Test
+    public void flowStepsAreTimed() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+
+        final Map<String, Timer> timers = bank.getServices().cordaService(MyCashMetrics.class).getRegistry().getTimers();
+        for (String step : ImmutableList.of("generating", "signing", "verifying", "gathering_sigs", "finalising", "total")) {
+            assertEquals(step, 1, timers.get("IssueMyCashFlow." + step).getCount());
+        }
+    }
+
+    /* ---------An owner destroys cash it was paid, the bank countersigns --------------------------------*/
+    @Test
+    public void ownerDestroysCashWithTheBanksSignature() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+
+        final CordaFuture<SignedTransaction> transfer = bank.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerA), DOLLARS(100)));
+        network.runNetwork();
+        transfer.get();
+        final MyCashState paid = cashOf(ownerA).get(0).getState().getData();
+        assertEquals(identityOf(bank), paid.getBank());
+
+        final CordaFuture<SignedTransaction> destroy = ownerA.startFlow(new MyCashFlows.DestroyMyCash(
+                new UniqueIdentifier[]{paid.getLinearId()}, DOLLARS(100)));
+        network.runNetwork();
+        final SignedTransaction tx = destroy.get();
+
+        tx.verifyRequiredSignatures();
+        assertEquals(0, cashOf(ownerA).size());
+    }
+
+    /* ---------An owner cannot destroy states that add up to another amount than it asked for ----------------*/
+    @Test
+    public void destroyRefusesStatesThatDoNotAddUpToTheAmount() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+        final MyCashState issued = cashOf(bank).get(0).getState().getData();
+
+        try {
+            final CordaFuture<SignedTransaction> destroy = bank.startFlow(new MyCashFlows.DestroyMyCash(
+                    new UniqueIdentifier[]{issued.getLinearId()}, DOLLARS(40)));
+            network.runNetwork();
+            destroy.get();
+            fail("The destruction should have been refused.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+        assertEquals(1, cashOf(bank).size());
+    }
+
+    /* ---------A payee refuses a currency it does not accept before signing, and counts the rejection --------*/
+    @Test
+    public void payeeRejectsCurrencyOutsideItsAllowList() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+
+        System.setProperty("com.bank.acceptor.currencies", "GBP");
+        try {
+            final CordaFuture<SignedTransaction> transfer = bank.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerA), DOLLARS(40)));
+            network.runNetwork();
+            transfer.get();
+            fail("The transfer should have been rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        } finally {
+            System.clearProperty("com.bank.acceptor.currencies");
+        }
+
+        assertEquals(0, cashOf(ownerA).size());
+        assertEquals(1, ownerA.getServices().cordaService(MyCashMetrics.class)
+                .getRegistry().counter("acceptor.rejected.currency").getCount());
+    }
+
+    /* ---------A payee refuses to sign a transfer that spends its own cash, and counts the rejection --------*/
+    @Test
+    public void payeeRefusesToSignAwayItsOwnCash() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+        final CordaFuture<SignedTransaction> transfer = bank.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerA), DOLLARS(40)));
+        network.runNetwork();
+        transfer.get();
+
+        //the bank pays ownerA $1 out of ownerA's own $40 and keeps the rest
+        final StateAndRef<MyCashState> ownerACash = cashOf(ownerA).get(0);
+        final CordaFuture<SignedTransaction> theft = bank.startFlow(new SpendPayeeCash(identityOf(ownerA), ownerACash));
+        network.runNetwork();
+        try {
+            theft.get();
+            fail("The payee should have refused to sign.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+
+        assertEquals(ownerACash, cashOf(ownerA).get(0));
+        assertEquals(1, ownerA.getServices().cordaService(MyCashMetrics.class)
+                .getRegistry().counter("acceptor.rejected.spends_our_cash").getCount());
+    }
+
+    /* --- a TransferMyCash as far as the payee can tell, that adds the payee's cash to our own as inputs --- */
+    public static class SpendPayeeCash extends MyCashFlows.TransferMyCash {
+        private final Party payee;
+        private final StateAndRef<MyCashState> payeeCash;
+
+        public SpendPayeeCash(Party payee, StateAndRef<MyCashState> payeeCash) {
+            super(payee, DOLLARS(1));
+            this.payee = payee;
+            this.payeeCash = payeeCash;
+        }
+
+        @Suspendable
+        @Override
+        public SignedTransaction call() throws FlowException {
+            final Party me = getOurIdentity();
+            final StateAndRef<MyCashState> ourCash = getServiceHub().getVaultService().queryBy(MyCashState.class).getStates().get(0);
+            final MyCashState theirs = payeeCash.getState().getData();
+            final MyCashState ours = ourCash.getState().getData();
+            final TransactionBuilder builder = new TransactionBuilder(ourCash.getState().getNotary())
+                    .addInputState(ourCash)
+                    .addInputState(payeeCash)
+                    .addOutputState(new MyCashState(DOLLARS(1), theirs.getBank(), payee), MyCashContract.ID)
+                    .addOutputState(new MyCashState(ours.getAmount().plus(theirs.getAmount()).minus(DOLLARS(1)), ours.getBank(), me), MyCashContract.ID)
+                    .addCommand(new MyCashContract.Commands.TransferCash(), ImmutableList.of(me.getOwningKey(), payee.getOwningKey()));
+            final SignedTransaction signedTx = getServiceHub().signInitialTransaction(builder);
+
+            final FlowSession session = initiateFlow(payee);
+            session.send(MyCashTransferSummary.of(signedTx, payee));
+            return subFlow(new CollectSignaturesFlow(signedTx, ImmutableList.of(session), CollectSignaturesFlow.Companion.tracker()));
+        }
+    }
+
+    /* ---------A window of obligations settles only its net movements, in a single transaction ----------*/
+    @Test
+    public void nettingSettlesNetPositionsInOneTransaction() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(50)),
+                new MyCashIssuance(identityOf(ownerB), DOLLARS(50)))));
+        network.runNetwork();
+        issue.get();
+
+        final List<MyCashObligation> obligations = ImmutableList.of(
+                record(ownerA, ownerB, DOLLARS(30)),
+                record(ownerB, ownerA, DOLLARS(20)),
+                record(ownerA, ownerB, DOLLARS(15)));
+        final CordaFuture<MyCashNettingReport> future = bank.startFlow(new MyCashFlows.NetSettleMyCash(obligations));
+        network.runNetwork();
+        final MyCashNettingReport report = future.get();
+
+        assertEquals(3, report.getObligations());
+        assertEquals(2, report.getParticipants());
+        assertEquals(DOLLARS(65), report.getGrossAmount());
+        assertEquals(DOLLARS(25), report.getNetAmount());
+        assertEquals(3.0, report.getGrossToNetRatio(), 0.0);
+
+        assertEquals(1, cashOf(ownerA).size());
+        assertEquals(DOLLARS(25), cashOf(ownerA).get(0).getState().getData().getAmount());
+        assertEquals(2, cashOf(ownerB).size());
+    }
+
+    /* ---------A payer signs for no obligation it did not record, nor for one it recorded twice ----------*/
+    @Test
+    public void nettingRefusesObligationsThePayerDidNotRecord() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(50)))));
+        network.runNetwork();
+        issue.get();
+
+        //the bank claims ownerA owes it, ownerA never said so
+        final CordaFuture<MyCashNettingReport> claimed = bank.startFlow(new MyCashFlows.NetSettleMyCash(ImmutableList.of(
+                new MyCashObligation(UUID.randomUUID(), identityOf(ownerA), identityOf(bank), DOLLARS(30)))));
+        network.runNetwork();
+        try {
+            claimed.get();
+            fail("ownerA should have refused an obligation it never recorded.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+
+        //a recorded obligation is settled once, a second window with it is refused
+        final MyCashObligation owed = record(ownerA, ownerB, DOLLARS(10));
+        final CordaFuture<MyCashNettingReport> first = bank.startFlow(new MyCashFlows.NetSettleMyCash(ImmutableList.of(owed)));
+        network.runNetwork();
+        first.get();
+        final CordaFuture<MyCashNettingReport> again = bank.startFlow(new MyCashFlows.NetSettleMyCash(ImmutableList.of(owed)));
+        network.runNetwork();
+        try {
+            again.get();
+            fail("ownerA should have refused to settle the same obligation twice.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FlowException);
+        }
+
+        assertEquals(1, cashOf(ownerB).size());
+        assertEquals(DOLLARS(40), cashOf(ownerA).get(0).getState().getData().getAmount());
+    }
+
+    /* ---------Queued transfers are paid together with one transaction at the next flush ---------------*/
     @Test
-    public void dummyTest() {
+    public void queuedTransfersSettleInOneTransaction() throws Exception {
+        final CordaFuture<SignedTransaction> issue = bank.startFlow(new MyCashFlows.IssueMyCashFlow(DOLLARS(100)));
+        network.runNetwork();
+        issue.get();
+
+        final CordaFuture<UUID> first = bank.startFlow(new MyCashFlows.QueueMyCashTransfer(identityOf(ownerA), DOLLARS(10)));
+        final CordaFuture<UUID> second = bank.startFlow(new MyCashFlows.QueueMyCashTransfer(identityOf(ownerB), DOLLARS(20)));
+        final CordaFuture<UUID> third = bank.startFlow(new MyCashFlows.QueueMyCashTransfer(identityOf(ownerA), DOLLARS(5)));
+        //queued in the node, its future completes with the flush whoever starts it
+        final CompletableFuture<SecureHash> fourth = bank.getServices().cordaService(MyCashSettlementQueue.class)
+                .submit(identityOf(ownerB), DOLLARS(1));
+        network.runNetwork();
+        assertEquals(0, cashOf(ownerA).size());
+        assertFalse(fourth.isDone());
+
+        final CordaFuture<List<MyCashQueuedTransfer>> flush = bank.startFlow(new MyCashFlows.SettleMyCashQueue());
+        network.runNetwork();
+        final List<MyCashQueuedTransfer> outcomes = flush.get();
+
+        assertEquals(4, outcomes.size());
+        for (MyCashQueuedTransfer outcome : outcomes) {
+            assertEquals(MyCashQueuedTransfer.Status.SETTLED, outcome.getStatus());
+            assertEquals(outcomes.get(0).getTxId(), outcome.getTxId());
+        }
+        assertEquals(outcomes.get(0).getTxId(), fourth.get());
+        assertEquals(2, cashOf(ownerA).size());
+        assertEquals(2, cashOf(ownerB).size());
+
+        final CordaFuture<MyCashQueuedTransfer> status = bank.startFlow(new MyCashFlows.QueuedMyCashTransferStatus(second.get()));
+        network.runNetwork();
+        assertEquals(MyCashQueuedTransfer.Status.SETTLED, status.get().getStatus());
+        assertEquals(outcomes.get(0).getTxId(), status.get().getTxId());
+        first.get();
+        third.get();
+    }
+
+    /* ---------The cash index reads an owner once and then follows the vault's updates ------------------*/
+    @Test
+    public void cashIndexFollowsVaultUpdates() throws Exception {
+        final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(10)),
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(20)))));
+        network.runNetwork();
+        issue.get();
+
+        final MyCashIndex index = ownerA.getServices().cordaService(MyCashIndex.class);
+        assertEquals(-1, index.size(identityOf(ownerA), USD));
+
+        final CordaFuture<SignedTransaction> first = ownerA.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerB), DOLLARS(5)));
+        network.runNetwork();
+        first.get();
+        //the 10 and the change of the 20
+        assertEquals(2, index.size(identityOf(ownerA), USD));
+
+        final CordaFuture<MyCashBulkIssueReport> more = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                new MyCashIssuance(identityOf(ownerA), DOLLARS(50)))));
+        network.runNetwork();
+        more.get();
+        assertEquals(3, index.size(identityOf(ownerA), USD));
+
+        final CordaFuture<SignedTransaction> second = ownerA.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerB), DOLLARS(60)));
+        network.runNetwork();
+        second.get();
+        assertEquals(2, index.size(identityOf(ownerA), USD));
+        assertEquals(2, cashOf(ownerA).size());
+    }
+
+    /* ---------Concurrent transfers of one owner lock different states, none of them loses at the notary
+               the way they do when locking is left out ------------------------------------------------------*/
+    @Test
+    public void concurrentTransfersFromOneOwnerNeverConflict() throws Exception {
+        //a conflict fails the flow instead of being selected around, so every one of them is counted
+        System.setProperty(MyCashRetryPolicy.MAX_ATTEMPTS_PROPERTY, "1");
+        try {
+            final int transfers = 20;
+            assertEquals(0, notaryConflictsAmong(transfers));
+            assertEquals(0, cashOf(ownerA).size());
+            assertEquals(transfers, cashOf(ownerB).size());
+
+            System.setProperty(MyCashSelection.SOFT_LOCKING_PROPERTY, "false");
+            final int unlocked = notaryConflictsAmong(transfers);
+            assertTrue("Without locks transfers should pick the same states", unlocked > 0);
+            assertEquals(unlocked, cashOf(ownerA).size());
+            assertEquals(2 * transfers - unlocked, cashOf(ownerB).size());
+        } finally {
+            System.clearProperty(MyCashRetryPolicy.MAX_ATTEMPTS_PROPERTY);
+            System.clearProperty(MyCashSelection.SOFT_LOCKING_PROPERTY);
+        }
+    }
+
+    /* ---------A transfer that loses its inputs at the notary leaves them out, selects again and succeeds -----*/
+    @Test
+    public void transferSelectsAgainAfterANotaryConflict() throws Exception {
+        //without locks both transfers pick the first state and the one notarised second loses it
+        System.setProperty(MyCashSelection.SOFT_LOCKING_PROPERTY, "false");
+        try {
+            final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(ImmutableList.of(
+                    new MyCashIssuance(identityOf(ownerA), DOLLARS(10)),
+                    new MyCashIssuance(identityOf(ownerA), DOLLARS(10)))));
+            network.runNetwork();
+            issue.get();
+
+            final CordaFuture<SignedTransaction> first = ownerA.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerB), DOLLARS(10)));
+            final CordaFuture<SignedTransaction> second = ownerA.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerB), DOLLARS(10)));
+            network.runNetwork();
+
+            assertFalse(first.get().getTx().getInputs().equals(second.get().getTx().getInputs()));
+            assertEquals(0, cashOf(ownerA).size());
+            assertEquals(2, cashOf(ownerB).size());
+            assertEquals(1, ownerA.getServices().cordaService(MyCashMetrics.class)
+                    .getRegistry().counter("retry.TransferMyCash.notary_conflict").getCount());
+        } finally {
+            System.clearProperty(MyCashSelection.SOFT_LOCKING_PROPERTY);
+        }
+    }
+
+    /* --- issues ownerA transfers states of $10 and starts as many $10 transfers to ownerB together, every one of
+       them selects before any is notarised. Failures other than a notary conflict fail the test --- */
+    private int notaryConflictsAmong(int transfers) throws Exception {
+        final List<MyCashIssuance> issuances = new ArrayList<>(transfers);
+        for (int i = 0; i < transfers; ++i) {
+            issuances.add(new MyCashIssuance(identityOf(ownerA), DOLLARS(10)));
+        }
+        final CordaFuture<MyCashBulkIssueReport> issue = bank.startFlow(new MyCashFlows.BulkIssueMyCashFlow(issuances));
+        network.runNetwork();
+        issue.get();
+
+        final List<CordaFuture<SignedTransaction>> futures = new ArrayList<>(transfers);
+        for (int i = 0; i < transfers; ++i) {
+            futures.add(ownerA.startFlow(new MyCashFlows.TransferMyCash(identityOf(ownerB), DOLLARS(10))));
+        }
+        network.runNetwork();
 
+        int conflicts = 0;
+        for (CordaFuture<SignedTransaction> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof NotaryException)
+                        || !(((NotaryException) e.getCause()).getError() instanceof NotaryError.Conflict)) {
+                    throw e;
+                }
+                ++conflicts;
+            }
+        }
+        return conflicts;
     }
-*/
 }
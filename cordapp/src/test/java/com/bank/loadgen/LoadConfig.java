@@ -0,0 +1,80 @@
+package com.bank.loadgen;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LoadGenerator settings, given as key=value arguments. Every key has a default:
+ *
+ * owners=4 notaries=1 validating=false inProcess=true rate=20 warmupSeconds=10 durationSeconds=60
+ * maxInFlight=64 fundingStatesPerOwner=200 mix=issue:1,transfer:3,destroy:1 out=build/loadgen
+ */
+class LoadConfig {
+    final int owners;
+    final int notaries;
+    final boolean validatingNotaries;
+    final boolean inProcess;
+    // Flows started per second over all operations.
+    final double rate;
+    final int warmupSeconds;
+    final int durationSeconds;
+    // Starts beyond this many unfinished flows are skipped and counted, so an overloaded network shows up as such.
+    final int maxInFlight;
+    final int fundingStatesPerOwner;
+    final Map<Operation, Integer> mix;
+    final File outputDirectory;
+
+    private LoadConfig(Map<String, String> values) {
+        owners = Integer.parseInt(values.getOrDefault("owners", "4"));
+        notaries = Integer.parseInt(values.getOrDefault("notaries", "1"));
+        validatingNotaries = Boolean.parseBoolean(values.getOrDefault("validating", "false"));
+        inProcess = Boolean.parseBoolean(values.getOrDefault("inProcess", "true"));
+        rate = Double.parseDouble(values.getOrDefault("rate", "20"));
+        warmupSeconds = Integer.parseInt(values.getOrDefault("warmupSeconds", "10"));
+        durationSeconds = Integer.parseInt(values.getOrDefault("durationSeconds", "60"));
+        maxInFlight = Integer.parseInt(values.getOrDefault("maxInFlight", "64"));
+        fundingStatesPerOwner = Integer.parseInt(values.getOrDefault("fundingStatesPerOwner", "200"));
+        mix = parseMix(values.getOrDefault("mix", "issue:1,transfer:3,destroy:1"));
+        outputDirectory = new File(values.getOrDefault("out", "build/loadgen"));
+
+        if (owners < 2) {
+            throw new IllegalArgumentException("At least two owners are needed to transfer between them.");
+        }
+        if (notaries < 1 || rate <= 0 || durationSeconds <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("notaries, rate, durationSeconds and maxInFlight must be positive.");
+        }
+    }
+
+    static LoadConfig parse(String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            values.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        return new LoadConfig(values);
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        final Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            final String[] parts = entry.split(":");
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("owners=%d notaries=%d validating=%s inProcess=%s rate=%.1f/s warmup=%ds duration=%ds maxInFlight=%d mix=%s",
+                owners, notaries, validatingNotaries, inProcess, rate, warmupSeconds, durationSeconds, maxInFlight, mix);
+    }
+
+    enum Operation {
+        ISSUE, TRANSFER, DESTROY
+    }
+}
@@ -0,0 +1,297 @@
+package com.bank.loadgen;
+
+import com.bank.MyCashFlows;
+import com.bank.MyCashIssuance;
+import com.bank.MyCashQueries;
+import com.bank.MyCashState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.UniqueIdentifier;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteriaUtils;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.driver.DriverDSL;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.User;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.corda.finance.Currencies.DOLLARS;
+import static net.corda.testing.driver.Driver.driver;
+
+/**
+ * Drives a mixed IssueMyCashFlow / TransferMyCash / DestroyMyCash workload over RPC at a fixed rate and reports
+ * latency percentiles and a per-second throughput timeline.
+ *
+ * The driver starts a Bank, owners Owner1..OwnerN and notaries Notary1..NotaryM, in process or as separate JVMs.
+ * Every owner is first funded by a bulk issuance. Then, at the target rate:
+ * - issue: the bank issues $1 to itself, the new state becomes a destroy candidate.
+ * - transfer: a random owner pays $1 to another random owner, with coin selection.
+ * - destroy: the bank destroys one of the states it issued to itself.
+ *
+ * Flows are started open loop: a start that finds maxInFlight flows unfinished is skipped and counted instead of
+ * queued. Results are printed and written to the output directory as timeline.csv and one
+ * HdrHistogram percentile distribution, in milliseconds, per operation.
+ *
+ * Run with: ./gradlew cordapp:runLoadGenerator -PloadArgs="owners=8 notaries=2 rate=50 durationSeconds=120"
+ */
+public class LoadGenerator {
+    private static final User LOADGEN_USER = new User("loadgen", "loadgen", ImmutableSet.of("ALL"));
+    private static final int MAX_LOGGED_ERRORS = 20;
+
+    private final LoadConfig config;
+    private final NodeHandle bank;
+    private final List<NodeHandle> owners;
+    private final Map<LoadConfig.Operation, OperationStats> stats = new EnumMap<>(LoadConfig.Operation.class);
+    private final LoadConfig.Operation[] weightedOperations;
+    private final ConcurrentLinkedQueue<UniqueIdentifier> destroyable = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlight;
+    private final AtomicInteger loggedErrors = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    // Starting a flow over RPC blocks until the node has accepted it, so starts run off the scheduler thread.
+    private final ExecutorService starter = Executors.newCachedThreadPool();
+
+    private LoadGenerator(LoadConfig config, NodeHandle bank, List<NodeHandle> owners) {
+        this.config = config;
+        this.bank = bank;
+        this.owners = owners;
+        this.inFlight = new Semaphore(config.maxInFlight);
+        final List<LoadConfig.Operation> weighted = new ArrayList<>();
+        for (Map.Entry<LoadConfig.Operation, Integer> weight : config.mix.entrySet()) {
+            for (int i = 0; i < weight.getValue(); ++i) {
+                weighted.add(weight.getKey());
+            }
+        }
+        this.weightedOperations = weighted.toArray(new LoadConfig.Operation[0]);
+        for (LoadConfig.Operation operation : LoadConfig.Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) {
+        final LoadConfig config = LoadConfig.parse(args);
+        System.out.println("Load generator: " + config);
+
+        final List<NotarySpec> notaries = new ArrayList<>();
+        for (int i = 1; i <= config.notaries; ++i) {
+            notaries.add(new NotarySpec(new CordaX500Name("Notary" + i, "London", "GB"), config.validatingNotaries,
+                    ImmutableList.of(LOADGEN_USER), VerifierType.InMemory, null));
+        }
+
+        driver(new DriverParameters()
+                .withStartNodesInProcess(config.inProcess)
+                .withExtraCordappPackagesToScan(ImmutableList.of("com.bank"))
+                .withNotarySpecs(notaries), dsl -> {
+            try {
+                final NodeHandle bank = startNode(dsl, new CordaX500Name("Bank", "London", "GB")).get();
+                final List<CordaFuture<NodeHandle>> ownerFutures = new ArrayList<>();
+                for (int i = 1; i <= config.owners; ++i) {
+                    ownerFutures.add(startNode(dsl, new CordaX500Name("Owner" + i, "London", "GB")));
+                }
+                final List<NodeHandle> owners = new ArrayList<>();
+                for (CordaFuture<NodeHandle> ownerFuture : ownerFutures) {
+                    owners.add(ownerFuture.get());
+                }
+                new LoadGenerator(config, bank, owners).run();
+            } catch (Exception e) {
+                throw new RuntimeException("Load generation failed: ", e);
+            }
+            return null;
+        });
+    }
+
+    private static CordaFuture<NodeHandle> startNode(DriverDSL dsl, CordaX500Name name) {
+        return dsl.startNode(new NodeParameters().withProvidedName(name).withRpcUsers(ImmutableList.of(LOADGEN_USER)));
+    }
+
+    private void run() throws Exception {
+        fund();
+
+        final long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.rate);
+        final long startNanos = System.nanoTime();
+        final AtomicLong sequence = new AtomicLong();
+        final ScheduledFuture<?> ticks = scheduler.scheduleAtFixedRate(
+                () -> tick(startNanos + sequence.getAndIncrement() * periodNanos), 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        config.outputDirectory.mkdirs();
+        try (PrintStream timeline = new PrintStream(new FileOutputStream(new File(config.outputDirectory, "timeline.csv")))) {
+            timeline.println("second,operation,measured,completed,failed,skipped,p50_ms,p99_ms");
+            final AtomicInteger second = new AtomicInteger();
+            final ScheduledFuture<?> reports = scheduler.scheduleAtFixedRate(
+                    () -> report(timeline, second.incrementAndGet()), 1, 1, TimeUnit.SECONDS);
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(config.warmupSeconds + config.durationSeconds));
+            ticks.cancel(false);
+            // Let the flows already started finish, so their latencies are counted.
+            inFlight.tryAcquire(config.maxInFlight, 2, TimeUnit.MINUTES);
+            reports.cancel(false);
+            report(timeline, second.incrementAndGet());
+        } finally {
+            scheduler.shutdownNow();
+            starter.shutdownNow();
+        }
+
+        summarise();
+    }
+
+    /* --- one bulk issuance per owner, and a seed of bank owned states to destroy --- */
+    private void fund() throws Exception {
+        final List<MyCashIssuance> issuances = new ArrayList<>();
+        for (NodeHandle owner : owners) {
+            for (int i = 0; i < config.fundingStatesPerOwner; ++i) {
+                issuances.add(new MyCashIssuance(identityOf(owner), DOLLARS(10)));
+            }
+        }
+        for (int i = 0; i < config.maxInFlight; ++i) {
+            issuances.add(new MyCashIssuance(identityOf(bank), DOLLARS(1)));
+        }
+        bank.getRpc().startFlowDynamic(MyCashFlows.BulkIssueMyCashFlow.class, issuances).getReturnValue().get();
+
+        for (StateAndRef<MyCashState> state : bank.getRpc().vaultQueryBy(MyCashQueries.ownedBy(identityOf(bank)),
+                new PageSpecification(QueryCriteriaUtils.DEFAULT_PAGE_NUM, config.maxInFlight),
+                MyCashQueries.BY_QUANTITY_ASCENDING, MyCashState.class).getStates()) {
+            destroyable.add(state.getState().getData().getLinearId());
+        }
+        System.out.println(String.format("Funded %d owners with %d states each", owners.size(), config.fundingStatesPerOwner));
+    }
+
+    /* --- runs on the scheduler at the target rate, only picks and hands over --- */
+    private void tick(long dueNanos) {
+        final LoadConfig.Operation operation = weightedOperations[ThreadLocalRandom.current().nextInt(weightedOperations.length)];
+        if (!inFlight.tryAcquire()) {
+            stats.get(operation).skipped();
+            return;
+        }
+        starter.execute(() -> start(operation, dueNanos));
+    }
+
+    private void start(LoadConfig.Operation operation, long dueNanos) {
+        final OperationStats operationStats = stats.get(operation);
+        final CordaFuture<?> result;
+        try {
+            result = startFlow(operation);
+        } catch (Exception e) {
+            inFlight.release();
+            failed(operation, operationStats, e);
+            return;
+        }
+        if (result == null) {
+            inFlight.release();
+            operationStats.skipped();
+            return;
+        }
+
+        result.toCompletableFuture().whenComplete((value, error) -> {
+            inFlight.release();
+            if (error != null) {
+                failed(operation, operationStats, error);
+                return;
+            }
+            operationStats.completed(dueNanos);
+            if (operation == LoadConfig.Operation.ISSUE) {
+                destroyable.add(((SignedTransaction) value).getTx().outputsOfType(MyCashState.class).get(0).getLinearId());
+            }
+        });
+    }
+
+    private CordaFuture<?> startFlow(LoadConfig.Operation operation) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (operation) {
+            case ISSUE:
+                return bank.getRpc().startFlowDynamic(MyCashFlows.IssueMyCashFlow.class, DOLLARS(1)).getReturnValue();
+            case TRANSFER:
+                final int payer = random.nextInt(owners.size());
+                final int payee = (payer + 1 + random.nextInt(owners.size() - 1)) % owners.size();
+                return owners.get(payer).getRpc().startFlowDynamic(MyCashFlows.TransferMyCash.class,
+                        identityOf(owners.get(payee)), DOLLARS(1)).getReturnValue();
+            case DESTROY:
+                final UniqueIdentifier linearId = destroyable.poll();
+                if (linearId == null) {
+                    return null;
+                }
+                return bank.getRpc().startFlowDynamic(MyCashFlows.DestroyMyCash.class,
+                        new UniqueIdentifier[]{linearId}, DOLLARS(1)).getReturnValue();
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private void failed(LoadConfig.Operation operation, OperationStats operationStats, Throwable error) {
+        operationStats.failed();
+        if (loggedErrors.incrementAndGet() <= MAX_LOGGED_ERRORS) {
+            System.err.println(String.format("%s failed: %s", operation, error));
+        }
+    }
+
+    /* ----------------- Reporting ------------------------------------------------------------------------------ */
+
+    private void report(PrintStream timeline, int second) {
+        final boolean measured = second > config.warmupSeconds;
+        final StringBuilder line = new StringBuilder(String.format("%4ds %s", second, measured ? "    " : "warm"));
+        for (LoadConfig.Operation operation : LoadConfig.Operation.values()) {
+            final OperationStats.Interval interval = stats.get(operation).interval(measured);
+            final double p50 = interval.latencies.getValueAtPercentile(50) / 1000.0;
+            final double p99 = interval.latencies.getValueAtPercentile(99) / 1000.0;
+            timeline.println(String.format("%d,%s,%s,%d,%d,%d,%.3f,%.3f", second, operation, measured,
+                    interval.completed, interval.failed, interval.skipped, p50, p99));
+            line.append(String.format(" | %s %d/s err %d skip %d p99 %.1fms",
+                    operation, interval.completed, interval.failed, interval.skipped, p99));
+        }
+        timeline.flush();
+        System.out.println(line);
+    }
+
+    private void summarise() throws IOException {
+        System.out.println();
+        System.out.println(String.format("%-9s %10s %8s %8s %10s %10s %10s %10s %10s %10s",
+                "operation", "completed", "failed", "skipped", "ops/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+        for (LoadConfig.Operation operation : LoadConfig.Operation.values()) {
+            final OperationStats operationStats = stats.get(operation);
+            final Histogram total = operationStats.getTotal();
+            System.out.println(String.format("%-9s %10d %8d %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f", operation,
+                    operationStats.getTotalCompleted(), operationStats.getTotalFailed(), operationStats.getTotalSkipped(),
+                    (double) operationStats.getTotalCompleted() / config.durationSeconds,
+                    total.getValueAtPercentile(50) / 1000.0,
+                    total.getValueAtPercentile(90) / 1000.0,
+                    total.getValueAtPercentile(99) / 1000.0,
+                    total.getValueAtPercentile(99.9) / 1000.0,
+                    total.getMaxValue() / 1000.0));
+
+            try (PrintStream out = new PrintStream(new FileOutputStream(
+                    new File(config.outputDirectory, operation.name().toLowerCase() + ".hgrm")))) {
+                total.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+        System.out.println("Reports written to " + config.outputDirectory.getAbsolutePath());
+    }
+
+    private static Party identityOf(NodeHandle node) {
+        return node.getNodeInfo().getLegalIdentities().get(0);
+    }
+}
@@ -0,0 +1,80 @@
+package com.bank.loadgen;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and counts of one operation. Latencies are recorded in microseconds from the time the flow was due to
+ * start, not the time it actually started, so a backed up generator does not hide queueing delay.
+ */
+class OperationStats {
+    private final Recorder recorder = new Recorder(3);
+    private final Histogram total = new Histogram(3);
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private long totalCompleted;
+    private long totalFailed;
+    private long totalSkipped;
+
+    void completed(long dueNanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueNanos));
+        completed.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    /**
+     * Takes what happened since the previous interval. Measured intervals are added to the totals, warmup ones are not.
+     */
+    synchronized Interval interval(boolean measured) {
+        final Histogram histogram = recorder.getIntervalHistogram();
+        final Interval interval = new Interval(completed.getAndSet(0), failed.getAndSet(0), skipped.getAndSet(0), histogram);
+        if (measured) {
+            total.add(histogram);
+            totalCompleted += interval.completed;
+            totalFailed += interval.failed;
+            totalSkipped += interval.skipped;
+        }
+        return interval;
+    }
+
+    synchronized Histogram getTotal() {
+        return total.copy();
+    }
+
+    synchronized long getTotalCompleted() {
+        return totalCompleted;
+    }
+
+    synchronized long getTotalFailed() {
+        return totalFailed;
+    }
+
+    synchronized long getTotalSkipped() {
+        return totalSkipped;
+    }
+
+    static class Interval {
+        final long completed;
+        final long failed;
+        final long skipped;
+        final Histogram latencies;
+
+        private Interval(long completed, long failed, long skipped, Histogram latencies) {
+            this.completed = completed;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.latencies = latencies;
+        }
+    }
+}